@@ -0,0 +1,89 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.model.Action;
+import de.appsist.service.iid.server.model.AssistanceStep;
+import de.appsist.service.iid.server.model.AssistanceStepBuilder;
+import de.appsist.service.iid.server.model.ContentBody;
+import de.appsist.service.iid.server.model.HttpPostAction;
+import de.appsist.service.iid.server.model.Popup;
+import de.appsist.service.iid.server.model.PopupBuilder;
+
+/**
+ * Benchmark for the assembly of assistance steps and popups as performed by the user interaction handler.
+ * The process titles otherwise retrieved from the process knowledge service are fixed.
+ * @author simon.schwantzer(at)im-c.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AssistanceStepBenchmark {
+	private static final String BASE_URL = "http://localhost:8093/services/psd";
+	
+	private List<String> processTitles;
+	
+	@Setup
+	public void setUp() {
+		processTitles = new ArrayList<>();
+		processTitles.add("Maschine einrichten");
+		processTitles.add("Werkzeug wechseln");
+		processTitles.add("Spannmittel prüfen");
+	}
+	
+	@Benchmark
+	public AssistanceStep buildTaskStep() {
+		AssistanceStepBuilder assistBuilder = new AssistanceStepBuilder();
+		assistBuilder.setProcessTitles(processTitles);
+		assistBuilder.setTitle("Spannmittel prüfen");
+		assistBuilder.setProgress(0.4d);
+		assistBuilder.setContentBody(new ContentBody.Package("content-4711"));
+		Action previousAction = new HttpPostAction(BASE_URL + "/navigate/previous", new JsonObject().putNumber("index", 1));
+		assistBuilder.setBackAction(previousAction);
+		Action nextAction = new HttpPostAction(BASE_URL + "/navigate/next", new JsonObject());
+		assistBuilder.addActionButtonWithText("next", "Bestätigen - Weiter", nextAction);
+		assistBuilder.setCloseAction(new HttpPostAction(BASE_URL + "/navigate/close", new JsonObject()));
+		assistBuilder.setKnowledgeAction(new HttpPostAction(BASE_URL + "/showAdditionalContent", new JsonObject().putString("contentId", "content-0815")));
+		return assistBuilder.build();
+	}
+	
+	@Benchmark
+	public AssistanceStep buildCallActivityStep() {
+		AssistanceStepBuilder assistBuilder = new AssistanceStepBuilder();
+		assistBuilder.setProcessTitles(processTitles);
+		assistBuilder.setTitle("Werkzeug wechseln");
+		assistBuilder.setProgress(0.2d);
+		assistBuilder.setContentBody(new ContentBody.Empty());
+		assistBuilder.setInfo("Für den Abschnitt ist keine Zusammenfassung hinterlegt. Klicken sie auf &quot;Anleitung anzeigen&quot; für weitere Informationen.");
+		JsonObject body = new JsonObject().putString("activityProcessId", "process-werkzeugwechsel");
+		assistBuilder.addActionButtonWithText("details", "Anleitung anzeigen", new HttpPostAction(BASE_URL + "/navigate/details", body));
+		assistBuilder.addActionButtonWithText("next", "Bestätigen - Weiter", new HttpPostAction(BASE_URL + "/navigate/next", new JsonObject()));
+		assistBuilder.setCloseAction(new HttpPostAction(BASE_URL + "/navigate/close", new JsonObject()));
+		return assistBuilder.build();
+	}
+	
+	@Benchmark
+	public Popup buildContentPopup() {
+		PopupBuilder builder = new PopupBuilder();
+		builder.setTitle("Weiterführender Inhalt");
+		builder.setBody(new ContentBody.Package("content-0815"));
+		return builder.build();
+	}
+}
@@ -6,6 +6,7 @@ import org.vertx.java.core.http.RouteMatcher;
 
 /**
  * Extension for the route matcher prepending a base path to all http endpoints.
+ * Former route matcher of the HTTP handler, kept as baseline for the {@link RouteMatcherBenchmark}.
  * @author simon.schwantzer(at)im-c.de
  */
 public class BasePathRouteMatcher extends RouteMatcher {
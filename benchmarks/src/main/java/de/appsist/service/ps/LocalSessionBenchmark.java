@@ -0,0 +1,75 @@
+package de.appsist.service.ps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Benchmark for the display history and the content cache of a local session.
+ * @author simon.schwantzer(at)im-c.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LocalSessionBenchmark {
+	@Param({ "10", "100" })
+	public int steps;
+	
+	private LocalSession session;
+	private String[] stepIds;
+	private int counter;
+	
+	@Setup
+	public void setUp() {
+		session = new LocalSession("session-1", "user-1");
+		stepIds = new String[steps];
+		for (int i = 0; i < steps; i++) {
+			stepIds[i] = "process-1/element-" + i;
+			session.setContentForStep(stepIds[i], "content-" + i);
+			session.setCurrentDisplay("Schritt " + i, "content-" + i);
+		}
+	}
+	
+	@Benchmark
+	public DisplayHistory.Step addAndReadHistory() {
+		int i = counter++ % steps;
+		session.setCurrentDisplay("Schritt " + i, "content-" + i);
+		return session.getDisplayFromHistory(1);
+	}
+	
+	@Benchmark
+	public DisplayHistory.Step readLastDisplay() {
+		return session.getLastDisplay();
+	}
+	
+	@Benchmark
+	public String lookupCachedContent() {
+		return session.getCachedContent(stepIds[counter++ % steps]);
+	}
+	
+	@Benchmark
+	public String updateCachedContent() {
+		String stepId = stepIds[counter++ % steps];
+		session.setContentForStep(stepId, "content-" + counter);
+		return session.getCachedContent(stepId);
+	}
+	
+	@Benchmark
+	public JsonObject snapshot() {
+		return session.asJson();
+	}
+}
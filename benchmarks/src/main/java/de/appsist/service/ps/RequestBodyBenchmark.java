@@ -0,0 +1,72 @@
+package de.appsist.service.ps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Benchmark for the decoding of request bodies as performed by the HTTP handler.
+ * Compares the streaming decoder with decoding the complete body into a JSON object.
+ * @author simon.schwantzer(at)im-c.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+	private RequestBodyDecoder decoder;
+	private byte[] navigationBody;
+	private byte[] startSupportBody;
+	
+	@Setup
+	public void setUp() {
+		decoder = new RequestBodyDecoder(65536, "sessionId", "token", "context", "contentId", "processId", "index", "activityProcessId");
+		JsonObject navigation = new JsonObject()
+			.putString("sessionId", "4c2a9d3e-7f4b-4d8e-9a1c-2b3e4f5a6b7c")
+			.putString("token", "8f14e45f-ceea-467f-a9f6-1b2c3d4e5f60")
+			.putString("processId", "process-werkzeugwechsel")
+			.putNumber("index", 1)
+			.putObject("client", new JsonObject().putString("device", "tablet").putString("version", "1.9.0"));
+		navigationBody = navigation.encode().getBytes(StandardCharsets.UTF_8);
+		JsonObject context = new JsonObject();
+		for (int i = 0; i < 20; i++) {
+			context.putString("variable" + i, "value" + i);
+		}
+		JsonObject startSupport = navigation.copy().putObject("context", context);
+		startSupportBody = startSupport.encode().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public JsonObject decodeNavigationBody() throws IOException {
+		return decoder.decode(navigationBody);
+	}
+	
+	@Benchmark
+	public JsonObject decodeStartSupportBody() throws IOException {
+		return decoder.decode(startSupportBody);
+	}
+	
+	@Benchmark
+	public JsonObject parseNavigationBody() {
+		return new JsonObject(new String(navigationBody, StandardCharsets.UTF_8));
+	}
+	
+	@Benchmark
+	public JsonObject parseStartSupportBody() {
+		return new JsonObject(new String(startSupportBody, StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,94 @@
+package de.appsist.service.ps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServerRequest;
+
+/**
+ * Benchmark for the dispatch of HTTP requests to the routes of the HTTP handler.
+ * Compares the regular expression based route matcher with the trie based one.
+ * @author simon.schwantzer(at)im-c.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RouteMatcherBenchmark {
+	private static final String BASE_PATH = "/services/psd";
+	private static final String[] ROUTES = {
+		"/startSupport/:supportId",
+		"/showContacts",
+		"/showAdditionalContent",
+		"/navigate/confirm",
+		"/navigate/next",
+		"/navigate/previous",
+		"/navigate/details",
+		"/navigate/close"
+	};
+	
+	private BasePathRouteMatcher basePathRouteMatcher;
+	private TrieRouteMatcher trieRouteMatcher;
+	private BenchmarkRequest firstRouteRequest;
+	private BenchmarkRequest lastRouteRequest;
+	private int dispatchCount;
+	
+	@Setup
+	public void setUp() {
+		Handler<HttpServerRequest> handler = new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				dispatchCount++;
+			}
+		};
+		basePathRouteMatcher = new BasePathRouteMatcher(BASE_PATH);
+		trieRouteMatcher = new TrieRouteMatcher(BASE_PATH);
+		for (String route : ROUTES) {
+			basePathRouteMatcher.post(route, handler);
+			trieRouteMatcher.post(route, handler);
+		}
+		firstRouteRequest = new BenchmarkRequest("POST", BASE_PATH + "/startSupport/process-werkzeugwechsel");
+		lastRouteRequest = new BenchmarkRequest("POST", BASE_PATH + "/navigate/close");
+	}
+	
+	@Benchmark
+	public int basePathRouteMatcherWithParam() {
+		firstRouteRequest.reset();
+		basePathRouteMatcher.handle(firstRouteRequest);
+		return dispatchCount;
+	}
+	
+	@Benchmark
+	public int basePathRouteMatcherLastRoute() {
+		lastRouteRequest.reset();
+		basePathRouteMatcher.handle(lastRouteRequest);
+		return dispatchCount;
+	}
+	
+	@Benchmark
+	public int trieRouteMatcherWithParam() {
+		firstRouteRequest.reset();
+		trieRouteMatcher.handle(firstRouteRequest);
+		return dispatchCount;
+	}
+	
+	@Benchmark
+	public int trieRouteMatcherLastRoute() {
+		lastRouteRequest.reset();
+		trieRouteMatcher.handle(lastRouteRequest);
+		return dispatchCount;
+	}
+}
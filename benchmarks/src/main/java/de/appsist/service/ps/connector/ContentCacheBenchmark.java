@@ -0,0 +1,109 @@
+package de.appsist.service.ps.connector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Benchmark for the generation of cache keys and the lookups in the content cache of the inventory service connector.
+ * The inventory service is replaced by a lookup answering immediately.
+ * @author simon.schwantzer(at)im-c.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContentCacheBenchmark {
+	private static final int KEYS = 1000;
+	
+	private ContentCache cache;
+	private String[] keys;
+	private Handler<AsyncResultHandler<JsonObject>> lookup;
+	private int counter;
+	
+	@Setup
+	public void setUp() {
+		cache = new ContentCache(KEYS, 300000l);
+		keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = ISConnector.generateCacheKey("task", "root-process", "process-1", "element-" + i, "user-1");
+		}
+		lookup = new Handler<AsyncResultHandler<JsonObject>>() {
+			
+			@Override
+			public void handle(AsyncResultHandler<JsonObject> lookupHandler) {
+				final JsonObject content = new JsonObject().putString("contentId", "content-4711");
+				lookupHandler.handle(new AsyncResult<JsonObject>() {
+					
+					@Override
+					public JsonObject result() {
+						return content;
+					}
+					
+					@Override
+					public Throwable cause() {
+						return null;
+					}
+					
+					@Override
+					public boolean succeeded() {
+						return true;
+					}
+					
+					@Override
+					public boolean failed() {
+						return false;
+					}
+				});
+			}
+		};
+		for (String key : keys) {
+			cache.get(key, lookup, new ResultSink(null));
+		}
+	}
+	
+	@Benchmark
+	public String generateCacheKey() {
+		return ISConnector.generateCacheKey("task", "root-process", "process-1", "element-" + (counter++ % KEYS), "user-1");
+	}
+	
+	@Benchmark
+	public void lookupHit(Blackhole blackhole) {
+		cache.get(keys[counter++ % KEYS], lookup, new ResultSink(blackhole));
+	}
+	
+	@Benchmark
+	public void lookupMiss(Blackhole blackhole) {
+		// Each lookup evicts the least recently used entry.
+		cache.get("miss|" + counter++, lookup, new ResultSink(blackhole));
+	}
+	
+	private static class ResultSink implements AsyncResultHandler<JsonObject> {
+		private final Blackhole blackhole;
+		
+		ResultSink(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+		
+		@Override
+		public void handle(AsyncResult<JsonObject> result) {
+			if (blackhole != null) blackhole.consume(result.result());
+		}
+	}
+}
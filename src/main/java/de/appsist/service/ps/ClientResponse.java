@@ -0,0 +1,25 @@
+package de.appsist.service.ps;
+
+/**
+ * Response to a client request. The request may have been received by this verticle or have been forwarded from another instance of the service.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public interface ClientResponse {
+	/**
+	 * Sets the HTTP status code of the response.
+	 * @param statusCode HTTP status code.
+	 * @return Response for chaining.
+	 */
+	public ClientResponse setStatusCode(int statusCode);
+	
+	/**
+	 * Ends the response without a body.
+	 */
+	public void end();
+	
+	/**
+	 * Ends the response.
+	 * @param body Response body.
+	 */
+	public void end(String body);
+}
@@ -1,5 +1,8 @@
 package de.appsist.service.ps;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.json.JsonObject;
@@ -7,10 +10,12 @@ import org.vertx.java.core.json.JsonObject;
 import de.appsist.service.auth.connector.AuthServiceConnector;
 import de.appsist.service.iid.server.connector.IIDConnector;
 import de.appsist.service.pki.connector.PKIConnector;
+import de.appsist.service.ps.connector.ActivityCache;
 import de.appsist.service.ps.connector.BMDConnector;
 import de.appsist.service.ps.connector.CNSConnector;
 import de.appsist.service.ps.connector.ISConnector;
 import de.appsist.service.ps.connector.KKDConnector;
+import de.appsist.service.ps.connector.ServiceGuard;
 
 public class ConnectorRegistry {
 	private final BMDConnector bmdConnector;
@@ -19,18 +24,29 @@ public class ConnectorRegistry {
 	private final KKDConnector kkdConnector;
 	private final AuthServiceConnector authConnector;
 	private final IIDConnector iidConnector;
+	private final ActivityCache activityCache;
 	private final PKIConnector pkiConnector;
+	private final Map<String, ServiceGuard> guards; // <service name, guard>
 	
 	
 	public ConnectorRegistry(Vertx vertx, ModuleConfiguration config) {
 		EventBus eventBus = vertx.eventBus();
 		JsonObject servicesConfig = config.getServicesConfiguration();
-		bmdConnector = new BMDConnector(eventBus);
-		cnsConnector = new CNSConnector(eventBus);
-		isConnector = new ISConnector(vertx, config.getServicesConfiguration());
-		kkdConnector = new KKDConnector(eventBus);
+		JsonObject resilienceConfig = servicesConfig.getObject("resilience", new JsonObject());
+		guards = new LinkedHashMap<>();
+		for (String serviceName : new String[] {"ihs", "usermodel", "kkd"}) {
+			guards.put(serviceName, new ServiceGuard(vertx, serviceName, resilienceConfig.getObject(serviceName, new JsonObject())));
+		}
+		long masteryCacheTtl = servicesConfig.getObject("masteryCache", new JsonObject()).getLong("ttl", 600) * 1000;
+		bmdConnector = new BMDConnector(eventBus, guards.get("usermodel"), masteryCacheTtl);
+		JsonObject contentSeenConfig = servicesConfig.getObject("contentSeen", new JsonObject());
+		cnsConnector = new CNSConnector(vertx, contentSeenConfig.getInteger("maxBatchSize", 1), contentSeenConfig.getLong("maxDelay", 1000));
+		isConnector = new ISConnector(vertx, config.getServicesConfiguration(), guards.get("ihs"));
+		kkdConnector = new KKDConnector(eventBus, guards.get("kkd"));
 		authConnector = new AuthServiceConnector(eventBus, AuthServiceConnector.SERVICE_ID);
 		iidConnector = new IIDConnector(eventBus, IIDConnector.DEFAULT_ADDRESS);
+		JsonObject activityCacheConfig = servicesConfig.getObject("activityCache", new JsonObject());
+		activityCache = new ActivityCache(eventBus, iidConnector, activityCacheConfig.getLong("ttl", 300) * 1000, activityCacheConfig.getInteger("maxEntries", 5000), activityCacheConfig.getString("eventAddress"));
 		pkiConnector = new PKIConnector(vertx, servicesConfig.getString("host"), servicesConfig.getInteger("port"), servicesConfig.getBoolean("secure"), servicesConfig.getObject("paths").getString("pki"));
 	}
 	
@@ -58,7 +74,23 @@ public class ConnectorRegistry {
 		return iidConnector;
 	}
 	
+	public ActivityCache activityCache() {
+		return activityCache;
+	}
+	
 	public PKIConnector pkiConnector() {
 		return pkiConnector;
 	}
+	
+	/**
+	 * Returns the state of the guards for the backend services.
+	 * @return JSON object with the state of the circuit breaker and counters for each guarded service.
+	 */
+	public JsonObject getGuardStatus() {
+		JsonObject status = new JsonObject();
+		for (ServiceGuard guard : guards.values()) {
+			status.putObject(guard.getServiceName(), guard.asJson());
+		}
+		return status;
+	}
 }
@@ -0,0 +1,95 @@
+package de.appsist.service.ps;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Read-only map view on the context of a process instance, as passed to the conditions of automated flows.
+ * In contrast to {@link JsonObject#toMap()}, the context is not copied: Values are converted the same way when they are accessed. The keys accessed and the values returned are recorded.
+ * @author simon.schwantzer(at)im-c.de
+ */
+class ContextView extends AbstractMap<String, Object> {
+	private final JsonObject context;
+	private final Map<String, Object> readValues; // <key, value returned by get>
+	private final Map<String, Boolean> checkedKeys; // <key, result of containsKey>
+	private boolean isFullyAccessed;
+	
+	/**
+	 * Creates a view on the given context.
+	 * @param context Context of a process instance.
+	 */
+	ContextView(JsonObject context) {
+		this.context = context;
+		this.readValues = new LinkedHashMap<>();
+		this.checkedKeys = new LinkedHashMap<>();
+	}
+	
+	@Override
+	public Object get(Object key) {
+		if (!(key instanceof String)) return null;
+		String field = (String) key;
+		Object value = convert(context.getValue(field));
+		readValues.put(field, value);
+		return value;
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		if (!(key instanceof String)) return false;
+		String field = (String) key;
+		boolean isContained = context.containsField(field);
+		checkedKeys.put(field, isContained);
+		return isContained;
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		// Iterating the entries depends on the complete context.
+		isFullyAccessed = true;
+		return context.toMap().entrySet();
+	}
+	
+	/**
+	 * Returns the values returned by {@link #get(Object)}.
+	 * @return Map with the keys accessed and the values returned.
+	 */
+	Map<String, Object> getReadValues() {
+		return readValues;
+	}
+	
+	/**
+	 * Returns the results of {@link #containsKey(Object)}.
+	 * @return Map with the keys checked and the results.
+	 */
+	Map<String, Boolean> getCheckedKeys() {
+		return checkedKeys;
+	}
+	
+	/**
+	 * Checks if the view has been accessed in a way which depends on all fields of the context, e.g., by iterating its entries or retrieving its size.
+	 * @return <code>true</code> if all fields may have been accessed, otherwise <code>false</code>.
+	 */
+	boolean isFullyAccessed() {
+		return isFullyAccessed;
+	}
+	
+	/**
+	 * Converts a value retrieved from a JSON object the same way as {@link JsonObject#toMap()}.
+	 * @param value Value of a field.
+	 * @return Value as contained in the map representation of the JSON object.
+	 */
+	static Object convert(Object value) {
+		if (value instanceof JsonObject) {
+			return ((JsonObject) value).toMap();
+		} else if (value instanceof JsonArray) {
+			return ((JsonArray) value).toList();
+		} else {
+			return value;
+		}
+	}
+}
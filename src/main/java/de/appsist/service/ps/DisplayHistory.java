@@ -0,0 +1,110 @@
+package de.appsist.service.ps;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * History of the steps displayed in a session.
+ * The history has a fixed capacity. If it is full, the oldest step is overwritten.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class DisplayHistory {
+	private final Step[] steps;
+	private int head; // Index of the slot for the next step.
+	private int size;
+	
+	/**
+	 * Step displayed to the user.
+	 */
+	public static class Step {
+		private final String title;
+		private final String contentId;
+		
+		public Step(String title, String contentId) {
+			this.title = title;
+			this.contentId = contentId;
+		}
+		
+		public String getTitle() {
+			return title;
+		}
+		
+		/**
+		 * Returns the ID of the content displayed in the step.
+		 * @return Content ID or <code>null</code> if no content was available for the step.
+		 */
+		public String getContentId() {
+			return contentId;
+		}
+		
+		public boolean hasContent() {
+			return contentId != null;
+		}
+		
+		public JsonObject asJson() {
+			return new JsonObject()
+				.putString("title", title)
+				.putString("contentId", contentId);
+		}
+	}
+	
+	/**
+	 * Creates an empty history.
+	 * @param capacity Maximum number of steps to keep.
+	 */
+	public DisplayHistory(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity of the history must be positive.");
+		}
+		this.steps = new Step[capacity];
+	}
+	
+	/**
+	 * Adds a step as the current one.
+	 * @param step Step to add.
+	 */
+	public void add(Step step) {
+		steps[head] = step;
+		head = (head + 1) % steps.length;
+		if (size < steps.length) size++;
+	}
+	
+	/**
+	 * Returns the n-th last step.
+	 * @param index Index of the step. 0 requests the current step, 1 the last, 2 the second last and so on.
+	 * @return Step or <code>null</code> if the history is shorter than the given index.
+	 */
+	public Step get(int index) {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		return steps[(head - 1 - index + steps.length) % steps.length];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the steps as JSON array, the current step first.
+	 * @return JSON array with the steps.
+	 */
+	public JsonArray asJson() {
+		JsonArray json = new JsonArray();
+		for (int i = 0; i < size; i++) {
+			json.addObject(get(i).asJson());
+		}
+		return json;
+	}
+	
+	/**
+	 * Adds the steps from a JSON array as returned by {@link #asJson()}.
+	 * @param json JSON array with the steps, the current step first.
+	 */
+	public void addAll(JsonArray json) {
+		for (int i = Math.min(json.size(), steps.length) - 1; i >= 0; i--) {
+			JsonObject step = json.get(i);
+			add(new Step(step.getString("title"), step.getString("contentId")));
+		}
+	}
+}
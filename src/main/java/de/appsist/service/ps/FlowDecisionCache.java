@@ -0,0 +1,139 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent.Condition;
+
+/**
+ * Cache for the decisions of automated flows.
+ * The conditions are evaluated on a {@link ContextView} of the process context instead of a copy. For each process and condition, the decisions are stored together with the context fields the condition has read to reach them. A decision is reused if all these fields are unchanged, as the condition would evaluate exactly the same way.
+ * Conditions are only cached if their class implements value equality, otherwise the conditions of two events can not be matched and each condition is evaluated directly.
+ * @author simon.schwantzer(at)im-c.de
+ */
+class FlowDecisionCache {
+	private static final int MAX_CONDITIONS = 256;
+	private static final int MAX_DECISIONS_PER_CONDITION = 16;
+	
+	private final Map<ConditionKey, List<Decision>> decisions;
+	private final Map<Class<?>, Boolean> comparableClasses; // <condition class, implements equals and hashCode>
+	
+	/**
+	 * Key for the decisions of a condition in a process.
+	 */
+	private static class ConditionKey {
+		final String processId;
+		final Condition condition;
+		
+		ConditionKey(String processId, Condition condition) {
+			this.processId = processId;
+			this.condition = condition;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ConditionKey)) return false;
+			ConditionKey other = (ConditionKey) obj;
+			return processId.equals(other.processId) && condition.equals(other.condition);
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * processId.hashCode() + condition.hashCode();
+		}
+	}
+	
+	/**
+	 * Decision of a condition together with the context fields it depends on.
+	 */
+	private static class Decision {
+		final Map<String, Object> readValues;
+		final Map<String, Boolean> checkedKeys;
+		final String elementId;
+		
+		Decision(ContextView view, String elementId) {
+			this.readValues = view.getReadValues();
+			this.checkedKeys = view.getCheckedKeys();
+			this.elementId = elementId;
+		}
+		
+		boolean matches(JsonObject context) {
+			for (Entry<String, Boolean> entry : checkedKeys.entrySet()) {
+				if (context.containsField(entry.getKey()) != entry.getValue()) return false;
+			}
+			for (Entry<String, Object> entry : readValues.entrySet()) {
+				Object value = ContextView.convert(context.getValue(entry.getKey()));
+				if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) return false;
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Creates an empty cache.
+	 */
+	FlowDecisionCache() {
+		decisions = new LinkedHashMap<ConditionKey, List<Decision>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Entry<ConditionKey, List<Decision>> eldest) {
+				return size() > MAX_CONDITIONS;
+			}
+		};
+		comparableClasses = new HashMap<>();
+	}
+	
+	/**
+	 * Returns the element to continue with for the given context.
+	 * @param processId ID of the process definition the condition belongs to.
+	 * @param condition Condition of the automated flow.
+	 * @param context Context of the process instance.
+	 * @return ID of the element selected by the condition.
+	 */
+	String getElementForContext(String processId, Condition condition, JsonObject context) {
+		if (processId == null || !isComparable(condition)) {
+			return condition.getElementForContext(new ContextView(context));
+		}
+		ConditionKey key = new ConditionKey(processId, condition);
+		List<Decision> conditionDecisions = decisions.get(key);
+		if (conditionDecisions != null) {
+			for (Decision decision : conditionDecisions) {
+				if (decision.matches(context)) return decision.elementId;
+			}
+		}
+		ContextView view = new ContextView(context);
+		String elementId = condition.getElementForContext(view);
+		if (!view.isFullyAccessed()) {
+			if (conditionDecisions == null) {
+				conditionDecisions = new ArrayList<>();
+				decisions.put(key, conditionDecisions);
+			} else if (conditionDecisions.size() >= MAX_DECISIONS_PER_CONDITION) {
+				conditionDecisions.remove(0);
+			}
+			conditionDecisions.add(new Decision(view, elementId));
+		}
+		return elementId;
+	}
+	
+	private boolean isComparable(Condition condition) {
+		Class<?> conditionClass = condition.getClass();
+		Boolean isComparable = comparableClasses.get(conditionClass);
+		if (isComparable == null) {
+			try {
+				isComparable = conditionClass.getMethod("equals", Object.class).getDeclaringClass() != Object.class
+					&& conditionClass.getMethod("hashCode").getDeclaringClass() != Object.class;
+			} catch (NoSuchMethodException e) {
+				isComparable = false;
+			}
+			comparableClasses.put(conditionClass, isComparable);
+		}
+		return isComparable;
+	}
+}
@@ -1,17 +1,19 @@
 package de.appsist.service.ps;
 
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
 public class HandlerRegistry {
-	@SuppressWarnings("unused")
 	private static final Logger logger = LoggerFactory.getLogger(LoggerFactory.class);
 	
 	private final Vertx vertx;
 	private final ConnectorRegistry connectors;
 	private final ModuleConfiguration config;
+	private SessionStore sessionStore;
 	private UserInteractionHandler userInteractionHandler;
 	private HttpHandler httpHandler;
 	
@@ -37,8 +39,45 @@ public class HandlerRegistry {
 		StringBuilder builder = new StringBuilder(300);
 		builder.append("http://localhost:").append(config.getPort()).append(config.getBasePath());
 		String baseUrl = builder.toString();
-		this.userInteractionHandler = new UserInteractionHandler(connectors, baseUrl);
-		this.httpHandler = new HttpHandler(this, config.getPort(), config.getBasePath(), config.isDebugMode());
+		JsonObject sessionConfig = config.getSessionConfiguration();
+		long sessionTtl = sessionConfig.getLong("ttl", 14400) * 1000;
+		this.sessionStore = new SessionStore(vertx, sessionConfig.getInteger("maxSessions", 5000), sessionTtl);
+		String storeMode = sessionConfig.getString("store", "local");
+		int maxConcurrentRestores = sessionConfig.getInteger("maxConcurrentRestores", 20);
+		switch (storeMode) {
+		case "local":
+			break;
+		case "hazelcast":
+			try {
+				sessionStore.setRepository(new HazelcastSessionRepository(vertx, sessionConfig.getString("mapName", "psd.sessions"), sessionTtl, sessionConfig.getLong("ownerLease", 30000)), connectors.pkiConnector(), sessionConfig.getLong("writeDelay", 0), maxConcurrentRestores);
+			} catch (IllegalStateException e) {
+				logger.warn("Failed to initialize shared session store, sessions are kept locally.", e);
+			}
+			break;
+		case "mongo":
+			final MongoSessionRepository mongoRepository = new MongoSessionRepository(vertx, config.getDBAddress(), sessionConfig.getString("collection", "psd.sessions"), sessionTtl);
+			sessionStore.setRepository(mongoRepository, connectors.pkiConnector(), sessionConfig.getLong("writeDelay", 2000), maxConcurrentRestores);
+			if (config.getShardIndex() == 0) {
+				// The collection is shared by all instances, one of them is sufficient to clean it up.
+				vertx.setPeriodic(Math.min(sessionTtl, 3600000l), new Handler<Long>() {
+					
+					@Override
+					public void handle(Long timerId) {
+						mongoRepository.removeExpiredSnapshots();
+					}
+				});
+			}
+			break;
+		default:
+			logger.warn("Unknown session store mode [" + storeMode + "], sessions are kept locally.");
+		}
+		ShardRouter shards = new ShardRouter(vertx.eventBus(), config.getShardIndex(), config.getInstances(), 30000l);
+		this.userInteractionHandler = new UserInteractionHandler(vertx, connectors, sessionStore, shards, baseUrl, config.getAssistanceConfiguration());
+		this.httpHandler = new HttpHandler(this, shards, config.getPort(), config.getBasePath(), config.getMaxBodySize(), config.isDebugMode());
+	}
+	
+	public SessionStore sessionStore() {
+		return sessionStore;
 	}
 	
 	public UserInteractionHandler userInteractionHandler() {
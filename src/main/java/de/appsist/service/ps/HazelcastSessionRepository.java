@@ -0,0 +1,233 @@
+package de.appsist.service.ps;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ICompletableFuture;
+import com.hazelcast.core.IMap;
+
+/**
+ * Session repository storing the session snapshots in a distributed map of the Hazelcast cluster vert.x is running in.
+ * This allows each service instance in the cluster to serve any session.
+ * Snapshots are written with a lock on the session, a snapshot is only replaced if it has not been modified by another instance in the meantime. The owners of the sessions are kept in a second map, claims are performed with a lock on the session as well. As the operations of the Hazelcast map used for this purpose are blocking, they are executed by a small thread pool of the repository and their results are passed back to the context of the caller.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class HazelcastSessionRepository implements SessionRepository {
+	private static final int POOL_SIZE = 4;
+	private static final long LOCK_LEASE = 10000l; // Time in milliseconds after which a lock is released if its holder fails.
+	
+	private final Vertx vertx;
+	private final IMap<String, String> snapshots; // <sessionId, encoded snapshot>
+	private final IMap<String, String> owners; // <sessionId, ID of the owning service instance>
+	private final long ttl;
+	private final long ownerLease;
+	private final ExecutorService executor;
+	
+	/**
+	 * Creates the repository.
+	 * @param vertx Vert.x instance. Has to run in cluster mode.
+	 * @param mapName Name of the distributed map to store the snapshots in.
+	 * @param ttl Time in milliseconds a snapshot is kept after its last update.
+	 * @param ownerLease Time in milliseconds the ownership of a session is granted for.
+	 * @throws IllegalStateException No Hazelcast instance is running in this JVM, i.e., vert.x is not clustered.
+	 */
+	public HazelcastSessionRepository(Vertx vertx, String mapName, long ttl, long ownerLease) throws IllegalStateException {
+		Iterator<HazelcastInstance> instances = Hazelcast.getAllHazelcastInstances().iterator();
+		if (!instances.hasNext()) {
+			throw new IllegalStateException("No Hazelcast instance available. Is vert.x running in cluster mode?");
+		}
+		HazelcastInstance hazelcast = instances.next();
+		this.vertx = vertx;
+		this.snapshots = hazelcast.getMap(mapName);
+		this.owners = hazelcast.getMap(mapName + ".owners");
+		this.ttl = ttl;
+		this.ownerLease = ownerLease;
+		this.executor = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "psd-session-repository");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	@Override
+	public void load(String sessionId, final AsyncResultHandler<JsonObject> resultHandler) {
+		final Context context = vertx.currentContext();
+		Future<String> future = snapshots.getAsync(sessionId);
+		if (future instanceof ICompletableFuture) {
+			((ICompletableFuture<String>) future).andThen(new ExecutionCallback<String>() {
+				
+				@Override
+				public void onResponse(final String encoded) {
+					context.runOnContext(new Handler<Void>() {
+						
+						@Override
+						public void handle(Void event) {
+							resultHandler.handle(new Result<JsonObject>(encoded != null ? new JsonObject(encoded) : null, null));
+						}
+					});
+				}
+				
+				@Override
+				public void onFailure(final Throwable cause) {
+					context.runOnContext(new Handler<Void>() {
+						
+						@Override
+						public void handle(Void event) {
+							resultHandler.handle(new Result<JsonObject>(null, cause));
+						}
+					});
+				}
+			});
+		} else {
+			// Not expected for Hazelcast map proxies. Fall back to a blocking read.
+			String encoded = snapshots.get(sessionId);
+			resultHandler.handle(new Result<JsonObject>(encoded != null ? new JsonObject(encoded) : null, null));
+		}
+	}
+	
+	@Override
+	public void save(final String sessionId, final JsonObject snapshot, final long expectedVersion, AsyncResultHandler<Long> resultHandler) {
+		execute(new Operation<Long>() {
+			
+			@Override
+			public Long run() {
+				snapshots.lock(sessionId, LOCK_LEASE, TimeUnit.MILLISECONDS);
+				try {
+					String stored = snapshots.get(sessionId);
+					long storedVersion = stored != null ? new JsonObject(stored).getLong("version", 0l) : 0l;
+					if (expectedVersion >= 0 && storedVersion != expectedVersion) {
+						return null;
+					}
+					long version = storedVersion + 1;
+					snapshots.set(sessionId, snapshot.putNumber("version", version).encode(), ttl, TimeUnit.MILLISECONDS);
+					return version;
+				} finally {
+					snapshots.unlock(sessionId);
+				}
+			}
+		}, resultHandler);
+	}
+	
+	@Override
+	public void remove(String sessionId) {
+		snapshots.removeAsync(sessionId);
+		owners.removeAsync(sessionId);
+	}
+	
+	@Override
+	public boolean isShared() {
+		return true;
+	}
+	
+	@Override
+	public void claim(final String sessionId, final String ownerId, AsyncResultHandler<Boolean> resultHandler) {
+		execute(new Operation<Boolean>() {
+			
+			@Override
+			public Boolean run() {
+				owners.lock(sessionId, LOCK_LEASE, TimeUnit.MILLISECONDS);
+				try {
+					String owner = owners.get(sessionId);
+					if (owner != null && !owner.equals(ownerId)) {
+						return false;
+					}
+					owners.set(sessionId, ownerId, ownerLease, TimeUnit.MILLISECONDS);
+					return true;
+				} finally {
+					owners.unlock(sessionId);
+				}
+			}
+		}, resultHandler);
+	}
+	
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * Blocking operation on the Hazelcast maps.
+	 * @param <T> Type of the result.
+	 */
+	private interface Operation<T> {
+		T run();
+	}
+	
+	/**
+	 * Executes a blocking operation in the thread pool of the repository.
+	 * @param operation Operation to execute.
+	 * @param resultHandler Handler for the result, called on the context of the caller.
+	 */
+	private <T> void execute(final Operation<T> operation, final AsyncResultHandler<T> resultHandler) {
+		final Context context = vertx.currentContext();
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				T result = null;
+				Throwable cause = null;
+				try {
+					result = operation.run();
+				} catch (RuntimeException e) {
+					cause = e;
+				}
+				final Result<T> operationResult = new Result<T>(result, cause);
+				context.runOnContext(new Handler<Void>() {
+					
+					@Override
+					public void handle(Void event) {
+						resultHandler.handle(operationResult);
+					}
+				});
+			}
+		});
+	}
+	
+	private static class Result<T> implements AsyncResult<T> {
+		private final T result;
+		private final Throwable cause;
+		
+		Result(T result, Throwable cause) {
+			this.result = result;
+			this.cause = cause;
+		}
+		
+		@Override
+		public T result() {
+			return result;
+		}
+		
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+		
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+		
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+}
@@ -2,15 +2,16 @@ package de.appsist.service.ps;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
-import org.vertx.java.core.http.RouteMatcher;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
@@ -22,170 +23,117 @@ import de.appsist.service.iid.server.model.InstructionItemBuilder;
 import de.appsist.service.iid.server.model.Popup;
 import de.appsist.service.iid.server.model.PopupBuilder;
 import de.appsist.service.iid.server.model.ServiceItem;
+import de.appsist.service.ps.metrics.LatencyHistogram;
+import de.appsist.service.ps.metrics.Metrics;
+import de.appsist.service.ps.metrics.SlowTraceLog;
 
 public class HttpHandler {
 	private static final Logger logger = LoggerFactory.getLogger(HttpHandler.class);
+	private static final long COMMAND_TIMEOUT = 30000l;
+	// Routes for requests related to a user session. These requests are handled by the verticle instance owning the session.
+	private static final String[] SESSION_ROUTES = {
+		"/startSupport/:supportId",
+		"/showContacts",
+		"/showAdditionalContent",
+		"/navigate/confirm",
+		"/navigate/next",
+		"/navigate/previous",
+		"/navigate/details",
+		"/navigate/close"
+	};
 	
 	private final ConnectorRegistry connectors;
 	private final HandlerRegistry handlers;
+	private final ShardRouter shards;
+	private final RequestBodyDecoder bodyDecoder;
+	private final SessionCommandGate commandGate;
 	
-	public HttpHandler(HandlerRegistry handlers, int port, String basePath, boolean isDebugMode) {
+	public HttpHandler(HandlerRegistry handlers, ShardRouter shards, int port, String basePath, int maxBodySize, boolean isDebugMode) {
 		this.handlers = handlers;
 		this.connectors = handlers.connectors();
-		RouteMatcher routeMatcher = initRouteMatcher(basePath, isDebugMode);
+		this.shards = shards;
+		// Fields read by any of the session routes.
+		this.commandGate = new SessionCommandGate(handlers.vertx(), COMMAND_TIMEOUT);
+		this.bodyDecoder = new RequestBodyDecoder(maxBodySize, "sessionId", "token", "context", "contentId", "processId", "index", "activityProcessId");
+		TrieRouteMatcher routeMatcher = initRouteMatcher(basePath, isDebugMode);
+		shards.registerHandler(new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonObject request = message.body();
+				handleRequest(request.getString("route"), request.getObject("params"), request.getObject("body"), new ForwardedResponse(message));
+			}
+		});
+		shards.registerStatusHandler(new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				message.reply(getLocalStatus(message.body().getString("status")));
+			}
+		});
 		
 		handlers.vertx().createHttpServer()
 			.requestHandler(routeMatcher)
 			.listen(port);
 	}
 	
-	private RouteMatcher initRouteMatcher(String basePath, boolean isDebugMode) {
-		RouteMatcher routeMatcher = new BasePathRouteMatcher(basePath);
+	private TrieRouteMatcher initRouteMatcher(String basePath, boolean isDebugMode) {
+		TrieRouteMatcher routeMatcher = new TrieRouteMatcher(basePath);
 		
-		routeMatcher.post("/startSupport/:supportId", new Handler<HttpServerRequest>() {
-			@Override
-			public void handle(final HttpServerRequest request) {
-				final HttpServerResponse response = request.response();
-				final String supportId = request.params().get("supportId");
-				request.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						logger.debug("Start assistance: " + body.encodePrettily());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						JsonObject context = body.getObject("context", new JsonObject());
-						handleStartSupportRequest(supportId, sessionId, token, context, response);
+		for (final String route : SESSION_ROUTES) {
+			routeMatcher.post(route, new Handler<HttpServerRequest>() {
+				
+				@Override
+				public void handle(final HttpServerRequest request) {
+					final ClientResponse response = new MeteredResponse(new LocalResponse(request.response()), Metrics.httpRequest(route));
+					final JsonObject params = new JsonObject();
+					for (Map.Entry<String, String> param : request.params()) {
+						params.putString(param.getKey(), param.getValue());
 					}
-				});
-			}
-		});
+					bodyDecoder.decode(request, new Handler<JsonObject>() {
+						
+						@Override
+						public void handle(JsonObject body) {
+							dispatch(route, params, body, response);
+						}
+					});
+				}
+			});
+		}
 		
-		routeMatcher.post("/showContacts", new Handler<HttpServerRequest>() {
+		routeMatcher.get("/metrics", new Handler<HttpServerRequest>() {
 			
 			@Override
 			public void handle(HttpServerRequest request) {
-				final HttpServerResponse response = request.response();
-				request.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						handleShowContacts(sessionId, token, response);
-					}
-				});
+				request.response()
+					.putHeader("Content-Type", "text/plain; version=0.0.4")
+					.end(Metrics.scrape());
 			}
 		});
 		
-		routeMatcher.post("/showAdditionalContent", new Handler<HttpServerRequest>() {
+		routeMatcher.get("/admin/traces", new Handler<HttpServerRequest>() {
 			
 			@Override
 			public void handle(HttpServerRequest request) {
-				final HttpServerResponse response = request.response();
-				request.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String contentId = body.getString("contentId");
-						handleShowAdditionalContent(response, sessionId, contentId);
-					}
-				});
+				request.response()
+					.putHeader("Content-Type", "application/json")
+					.end(SlowTraceLog.asJson().encodePrettily());
 			}
 		});
 		
-		routeMatcher.post("/navigate/confirm", new Handler<HttpServerRequest>() {
+		routeMatcher.get("/admin/breakers", new Handler<HttpServerRequest>() {
 			
 			@Override
-			public void handle(final HttpServerRequest request) {
-				request.bodyHandler(new Handler<Buffer>() {
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						handlers.userInteractionHandler().setClientToken(sessionId, token);
-						handlers.userInteractionHandler().handleConfirmRequest(request.response(), sessionId, body.getString("processId"));
-					}
-				});
-			}
-		});
-		
-		routeMatcher.post("/navigate/next", new Handler<HttpServerRequest>() {
-			@Override
-			public void handle(final HttpServerRequest request) {
-				final String elementId = request.params().get("elementId");
-				request.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						handlers.userInteractionHandler().setClientToken(sessionId, token);
-						handlers.userInteractionHandler().handleNextRequest(request.response(), sessionId, elementId);
-					}
-				});
-			}
-		});
-		
-		routeMatcher.post("/navigate/previous", new Handler<HttpServerRequest>() {
-			@Override
-			public void handle(final HttpServerRequest request) {
-				request.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						Integer index = body.getInteger("index");
-						handlers.userInteractionHandler().setClientToken(sessionId, token);
-						handlers.userInteractionHandler().handlePreviousRequest(request.response(), sessionId, index);
-					}
-				});
+			public void handle(HttpServerRequest request) {
+				sendInstanceStatus(request.response(), "breakers");
 			}
 		});
 		
-		routeMatcher.post("/navigate/details", new Handler<HttpServerRequest>() {
-
-			@Override
-			public void handle(final HttpServerRequest request) {
-				request.bodyHandler(new Handler<Buffer>() {
-
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						handlers.userInteractionHandler().setClientToken(sessionId, token);
-						String activityProcessId = body.getString("activityProcessId");
-						handlers.userInteractionHandler().handleDetailsRequest(request.response(), sessionId, token, activityProcessId);
-					}
-				});
-			}
+		routeMatcher.get("/admin/connections", new Handler<HttpServerRequest>() {
 			
-		});
-		
-		routeMatcher.post("/navigate/close", new Handler<HttpServerRequest>() {
-
 			@Override
-			public void handle(final HttpServerRequest request) {
-				request.bodyHandler(new Handler<Buffer>() {
-
-					@Override
-					public void handle(Buffer buffer) {
-						JsonObject body = new JsonObject(buffer.toString());
-						String sessionId = body.getString("sessionId");
-						String token = body.getString("token");
-						handlers.userInteractionHandler().setClientToken(sessionId, token);
-						handlers.userInteractionHandler().handleCloseRequest(request.response(), sessionId, token);
-					}
-				});
+			public void handle(HttpServerRequest request) {
+				sendInstanceStatus(request.response(), "connections");
 			}
 		});
 		
@@ -209,7 +157,7 @@ public class HttpHandler {
 							serviceItems.add(new InstructionItemBuilder().setId(UUID.randomUUID().toString()).setPriority(50).setService("psd").setTitle(title).setAction(action).build());
 							
 							
-							connectors.iidConnector().addServiceItems(sessionId, serviceItems, new AsyncResultHandler<Void>() {
+							connectors.iidConnector().addServiceItems(sessionId, serviceItems, Metrics.timed("iid", "addServiceItems", new AsyncResultHandler<Void>() {
 								
 								@Override
 								public void handle(AsyncResult<Void> addRequest) {
@@ -219,10 +167,10 @@ public class HttpHandler {
 										response.setStatusCode(500).end(addRequest.cause().getMessage());
 									}
 								}
-							}); 
+							})); 
 						}
 					});
-					
+				
 				}
 			});
 		}
@@ -230,8 +178,147 @@ public class HttpHandler {
 		return routeMatcher;
 	}
 	
-	private void handleStartSupportRequest(final String supportId, final String sessionId, final String token, final JsonObject context, final HttpServerResponse response) {
-		connectors.authConnector().getSession(sessionId, token, new AsyncResultHandler<Session>() {
+	/**
+	 * Returns the status of a component of this verticle instance.
+	 * @param component Name of the component, i.e., <code>breakers</code> or <code>connections</code>.
+	 * @return Status of the component.
+	 */
+	private JsonObject getLocalStatus(String component) {
+		switch (component) {
+		case "breakers":
+			return connectors.getGuardStatus();
+		case "connections":
+			return new JsonObject().putObject("ihs", connectors.isConnector().getPoolStatus());
+		default:
+			return new JsonObject().putString("error", "Unknown component: " + component);
+		}
+	}
+	
+	/**
+	 * Collects the status of a component from all verticle instances and sends it as response. The status of each instance is listed by the index of the instance.
+	 * @param response Response to send the status with.
+	 * @param component Name of the component.
+	 */
+	private void sendInstanceStatus(final HttpServerResponse response, String component) {
+		shards.collectStatus(new JsonObject().putString("status", component), new Handler<JsonObject>() {
+			
+			@Override
+			public void handle(JsonObject status) {
+				response
+					.putHeader("Content-Type", "application/json")
+					.end(status.encodePrettily());
+			}
+		});
+	}
+	
+	/**
+	 * Handles a session related request locally or forwards it to the verticle instance owning the session.
+	 * @param route Route the request has been received for.
+	 * @param params Request parameters.
+	 * @param body Request body.
+	 * @param response Response for the client.
+	 */
+	private void dispatch(String route, JsonObject params, JsonObject body, final ClientResponse response) {
+		String sessionId = body.getString("sessionId");
+		if (shards.isLocal(sessionId)) {
+			handleRequest(route, params, body, response);
+			return;
+		}
+		JsonObject request = new JsonObject()
+			.putString("route", route)
+			.putObject("params", params)
+			.putObject("body", body);
+		shards.forward(sessionId, request, new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> forwardRequest) {
+				if (forwardRequest.succeeded()) {
+					JsonObject reply = forwardRequest.result().body();
+					response.setStatusCode(reply.getInteger("statusCode"));
+					String replyBody = reply.getString("body");
+					if (replyBody != null) {
+						response.end(replyBody);
+					} else {
+						response.end();
+					}
+				} else {
+					logger.warn("Failed to forward request to responsible service instance.", forwardRequest.cause());
+					response.setStatusCode(503).end("Service instance for session not available.");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Handles a session related request. Navigation requests of a session are executed one after another, repeated requests are merged.
+	 * @param route Route the request has been received for.
+	 * @param params Request parameters.
+	 * @param body Request body.
+	 * @param response Response for the client.
+	 */
+	private void handleRequest(final String route, final JsonObject params, final JsonObject body, ClientResponse response) {
+		String sessionId = body.getString("sessionId");
+		if (sessionId == null || !route.startsWith("/navigate/")) {
+			executeRequest(route, params, body, response);
+			return;
+		}
+		StringBuilder commandKey = new StringBuilder(route)
+			.append("|").append(params.getString("elementId"))
+			.append("|").append(body.getString("processId"))
+			.append("|").append(body.getNumber("index"))
+			.append("|").append(body.getString("activityProcessId"));
+		commandGate.submit(sessionId, commandKey.toString(), response, new Handler<ClientResponse>() {
+			
+			@Override
+			public void handle(ClientResponse gatedResponse) {
+				executeRequest(route, params, body, gatedResponse);
+			}
+		});
+	}
+	
+	private void executeRequest(String route, JsonObject params, JsonObject body, ClientResponse response) {
+		String sessionId = body.getString("sessionId");
+		String token = body.getString("token");
+		UserInteractionHandler userInteractionHandler = handlers.userInteractionHandler();
+		switch (route) {
+		case "/startSupport/:supportId":
+			logger.debug("Start assistance: " + body.encodePrettily());
+			JsonObject context = body.getObject("context", new JsonObject());
+			handleStartSupportRequest(params.getString("supportId"), sessionId, token, context, response);
+			break;
+		case "/showContacts":
+			handleShowContacts(sessionId, token, response);
+			break;
+		case "/showAdditionalContent":
+			handleShowAdditionalContent(response, sessionId, body.getString("contentId"));
+			break;
+		case "/navigate/confirm":
+			userInteractionHandler.setClientToken(sessionId, token);
+			userInteractionHandler.handleConfirmRequest(response, sessionId, body.getString("processId"));
+			break;
+		case "/navigate/next":
+			userInteractionHandler.setClientToken(sessionId, token);
+			userInteractionHandler.handleNextRequest(response, sessionId, params.getString("elementId"));
+			break;
+		case "/navigate/previous":
+			userInteractionHandler.setClientToken(sessionId, token);
+			userInteractionHandler.handlePreviousRequest(response, sessionId, body.getInteger("index"));
+			break;
+		case "/navigate/details":
+			userInteractionHandler.setClientToken(sessionId, token);
+			userInteractionHandler.handleDetailsRequest(response, sessionId, token, body.getString("activityProcessId"));
+			break;
+		case "/navigate/close":
+			userInteractionHandler.setClientToken(sessionId, token);
+			userInteractionHandler.handleCloseRequest(response, sessionId, token);
+			break;
+		default:
+			response.setStatusCode(404).end();
+		}
+	}
+	
+	private void handleStartSupportRequest(final String supportId, final String sessionId, final String token, final JsonObject context, final ClientResponse response) {
+		connectors.authConnector().getSession(sessionId, token, Metrics.timed("auth", "getSession", new AsyncResultHandler<Session>() {
 			
 			@Override
 			public void handle(AsyncResult<Session> event) {
@@ -245,51 +332,153 @@ public class HttpHandler {
 					response.setStatusCode(500).end(event.cause().getMessage());
 				}
 			}
+		}));
+	}
+	
+	private void handleShowContacts(String sessionId, String token, final ClientResponse response) {
+		handlers.userInteractionHandler().getLocalSession(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session != null ) {
+					Popup contactsPopup = session.getContactsPopup();
+					if (contactsPopup != null) {
+						connectors.iidConnector().displayPopup(session.getId(), null, MainVerticle.SERVICE_ID, contactsPopup, Metrics.timed("iid", "displayPopup", new AsyncResultHandler<Void>() {
+							
+							@Override
+							public void handle(AsyncResult<Void> event) {
+								if (event.failed()) {
+									logger.warn("Failed to display contacts popup", event.cause());
+								}
+							}
+						}));
+					}			
+				}
+				response.end();
+			}
 		});
 	}
 	
-	private void handleShowContacts(String sessionId, String token, HttpServerResponse response) {
-		LocalSession session = handlers.userInteractionHandler().getLocalSession(sessionId);
-		if (session != null ) {
-			Popup contactsPopup = session.getContactsPopup();
-			if (contactsPopup != null) {
-				connectors.iidConnector().displayPopup(sessionId, null, MainVerticle.SERVICE_ID, contactsPopup, new AsyncResultHandler<Void>() {
+	private void handleShowAdditionalContent(final ClientResponse response, final String sessionId, final String contentId) {
+		handlers.userInteractionHandler().getLocalSession(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				if (contentId == null || contentId.isEmpty()) {
+					response.setStatusCode(400).end("Missing or empty content id.");
+					return;
+				}
+				PopupBuilder builder = new PopupBuilder();
+				builder.setTitle("Weiterführender Inhalt");
+				builder.setBody(new ContentBody.Package(contentId));
+				Popup popup = builder.build();
+				connectors.iidConnector().displayPopup(sessionId, null, MainVerticle.SERVICE_ID, popup, Metrics.timed("iid", "displayPopup", new AsyncResultHandler<Void>() {
 					
 					@Override
 					public void handle(AsyncResult<Void> event) {
-						if (event.failed()) {
-							logger.warn("Failed to display contacts popup", event.cause());
+						if (event.succeeded()) {
+							response.end();
+						} else {
+							logger.warn("Failed to display additional content popup.", event.cause());
+							response.setStatusCode(500).end(event.cause().getMessage());
 						}
 					}
-				});
-			}			
+				}));
+			}
+		});
+	}
+	
+	/**
+	 * Response for a HTTP request received by this verticle instance.
+	 */
+	private static class LocalResponse implements ClientResponse {
+		private final HttpServerResponse response;
+		
+		public LocalResponse(HttpServerResponse response) {
+			this.response = response;
+		}
+		
+		@Override
+		public ClientResponse setStatusCode(int statusCode) {
+			response.setStatusCode(statusCode);
+			return this;
+		}
+		
+		@Override
+		public void end() {
+			response.end();
+		}
+		
+		@Override
+		public void end(String body) {
+			response.end(body);
 		}
-		response.end();
 	}
 	
-	private void handleShowAdditionalContent(final HttpServerResponse response, String sessionId, String contentId) {
-		final LocalSession session = handlers.userInteractionHandler().getLocalSession(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-			return;
+	/**
+	 * Response recording the latency of the request it answers. Requests answered with a status code of 500 or above are counted as errors.
+	 */
+	private static class MeteredResponse implements ClientResponse {
+		private final ClientResponse response;
+		private final LatencyHistogram latency;
+		private final long startTime;
+		private int statusCode = 200;
+		
+		public MeteredResponse(ClientResponse response, LatencyHistogram latency) {
+			this.response = response;
+			this.latency = latency;
+			this.startTime = System.nanoTime();
 		}
-		if (contentId == null || contentId.isEmpty()) {
-			response.setStatusCode(400).end("Missing or empty content id.");
-			return;
+		
+		@Override
+		public ClientResponse setStatusCode(int statusCode) {
+			this.statusCode = statusCode;
+			response.setStatusCode(statusCode);
+			return this;
+		}
+		
+		@Override
+		public void end() {
+			latency.recordSince(startTime, statusCode >= 500);
+			response.end();
+		}
+		
+		@Override
+		public void end(String body) {
+			latency.recordSince(startTime, statusCode >= 500);
+			response.end(body);
+		}
+	}
+	
+	/**
+	 * Response for a request forwarded by another verticle instance. The response is sent as reply to the forwarding message.
+	 */
+	private static class ForwardedResponse implements ClientResponse {
+		private final Message<JsonObject> message;
+		private int statusCode = 200;
+		
+		public ForwardedResponse(Message<JsonObject> message) {
+			this.message = message;
+		}
+		
+		@Override
+		public ClientResponse setStatusCode(int statusCode) {
+			this.statusCode = statusCode;
+			return this;
+		}
+		
+		@Override
+		public void end() {
+			message.reply(new JsonObject().putNumber("statusCode", statusCode));
+		}
+		
+		@Override
+		public void end(String body) {
+			message.reply(new JsonObject().putNumber("statusCode", statusCode).putString("body", body));
 		}
-		PopupBuilder builder = new PopupBuilder();
-		builder.setTitle("Weiterführender Inhalt");
-		builder.setBody(new ContentBody.Package(contentId));
-		Popup popup = builder.build();
-		connectors.iidConnector().displayPopup(sessionId, null, MainVerticle.SERVICE_ID, popup, new AsyncResultHandler<Void>() {
-			
-			@Override
-			public void handle(AsyncResult<Void> event) {
-				if (event.failed()) {
-					logger.warn("Failed to display additional content popup.", event.cause());
-				}
-				
-			}
-		});
 	}
 }
@@ -1,36 +1,55 @@
 package de.appsist.service.ps;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
 import de.appsist.service.iid.server.model.Popup;
+import de.appsist.service.pki.connector.PKIConnector;
 import de.appsist.service.pki.model.ProcessElementInstance;
 import de.appsist.service.pki.model.ProcessInstance;
 
 public class LocalSession {
+	private static final Logger logger = LoggerFactory.getLogger(LocalSession.class);
+	private static final int MAX_HISTORY_SIZE = 50;
+	
 	private final String sessionId;
 	private final String userId;
 	private final Map<String, ProcessInstance> processInstances;
 	
 	private ProcessInstance activeProcessInstance;
 	private ProcessElementInstance activeElement;
+	private ProcessElementInstance leftElement; // Active element the navigation to the next element has been requested for.
 	private String token;
 	private Double progress;
 	private Popup contactPopup;
 	
 	private final Map<String, String> contentMappingCache;
+	private final Map<String, List<String>> processTitles; // <process instance id, titles of the process and its parents>
+	
+	private final DisplayHistory displayHistory;
 	
-	private final List<Popup> displayHistory;
+	private long version;
+	private long renderGeneration;
+	private Handler<LocalSession> changeHandler;
 	
 	public LocalSession(String sessionId, String userId) {
 		this.sessionId = sessionId;
 		this.userId = userId;
 		this.processInstances = new HashMap<>();
 		this.contentMappingCache = new HashMap<>();
+		this.processTitles = new HashMap<>();
 		this.progress = 0.0d;
-		this.displayHistory = new ArrayList<>();
+		this.displayHistory = new DisplayHistory(MAX_HISTORY_SIZE);
 	}
 	
 	public String getId() {
@@ -43,12 +62,47 @@ public class LocalSession {
 	
 	public void setActiveProcessInstance(ProcessInstance processInstance) {
 		processInstances.put(processInstance.getId(), processInstance);
+		if (activeProcessInstance == null || !activeProcessInstance.getId().equals(processInstance.getId())) {
+			processTitles.remove(processInstance.getId());
+		}
 		activeProcessInstance = processInstance;
+		changed();
 	}
 	
 	public void closeProcessInstance() {
 		processInstances.remove(activeProcessInstance);
+		if (activeProcessInstance != null) {
+			processTitles.remove(activeProcessInstance.getId());
+		}
 		activeProcessInstance = null;
+		changed();
+	}
+	
+	/**
+	 * Returns the cached titles of a process instance and the instances it has been called from.
+	 * The titles are not part of the session snapshot.
+	 * @param processInstanceId ID of the process instance.
+	 * @return Unmodifiable list of process titles or <code>null</code> if no titles are cached for the instance.
+	 */
+	public List<String> getProcessTitles(String processInstanceId) {
+		return processTitles.get(processInstanceId);
+	}
+	
+	/**
+	 * Caches the titles of a process instance and the instances it has been called from.
+	 * @param processInstanceId ID of the process instance.
+	 * @param titles Process titles as shown in the breadcrumb of assistance steps.
+	 */
+	public void setProcessTitles(String processInstanceId, List<String> titles) {
+		processTitles.put(processInstanceId, Collections.unmodifiableList(titles));
+	}
+	
+	/**
+	 * Removes the cached titles of a process instance.
+	 * @param processInstanceId ID of the process instance.
+	 */
+	public void removeProcessTitles(String processInstanceId) {
+		processTitles.remove(processInstanceId);
 	}
 	
 	public ProcessInstance getActiveProcessInstance() {
@@ -57,14 +111,33 @@ public class LocalSession {
 	
 	public void setActiveElement(ProcessElementInstance activeElement) {
 		this.activeElement = activeElement;
+		this.leftElement = null;
+		changed();
 	}
 	
 	public ProcessElementInstance getActiveElement() {
 		return activeElement;
 	}
 	
+	/**
+	 * Marks the active element as left, as the navigation to the next element has been requested but the next element is not known yet.
+	 * The mark is removed when an active element is set and is not part of the session snapshot.
+	 */
+	public void leaveActiveElement() {
+		leftElement = activeElement;
+	}
+	
+	/**
+	 * Checks if the navigation to the next element has already been requested for the active element.
+	 * @return <code>true</code> if the active element has been left, otherwise <code>false</code>.
+	 */
+	public boolean isActiveElementLeft() {
+		return activeElement != null && activeElement == leftElement;
+	}
+	
 	public void setToken(String token) {
 		this.token = token;
+		changed();
 	}
 	
 	public String getToken() {
@@ -73,31 +146,34 @@ public class LocalSession {
 	
 	public void setProgress(Double progress) {
 		this.progress = progress;
+		changed();
 	}
 	
 	public Double getProgress() {
 		return progress;
 	}
 	
-	public void setCurrentDisplay(Popup popup) {
-		this.displayHistory.add(0, popup);
+	/**
+	 * Adds a step to the display history as the current display. Only the last displays are kept.
+	 * @param title Title of the step.
+	 * @param contentId ID of the content displayed. May be <code>null</code>.
+	 */
+	public void setCurrentDisplay(String title, String contentId) {
+		this.displayHistory.add(new DisplayHistory.Step(title, contentId));
+		changed();
 	}
 	
-	public Popup getLastDisplay() {
-		return displayHistory.size() > 1 ? displayHistory.get(1) : null;
+	public DisplayHistory.Step getLastDisplay() {
+		return displayHistory.get(1);
 	}
 	
 	/**
-	 * Returns the n-th last display. 
+	 * Returns the n-th last display.
 	 * @param index Index of the history do display. 0 requests the current display, 1 the last, 2 the second last and so on.
-	 * @return Popup to display or <code>null</code> if the history is shorter than the given index.
+	 * @return Step to display or <code>null</code> if the history is shorter than the given index.
 	 */
-	public Popup getDisplayFromHistory(int index) {
-		if (displayHistory.size() > index) {
-			return displayHistory.get(index);
-		} else {
-			return null;
-		}
+	public DisplayHistory.Step getDisplayFromHistory(int index) {
+		return displayHistory.get(index);
 	}
 	
 	public boolean hasLastDisplay() {
@@ -106,6 +182,7 @@ public class LocalSession {
 	
 	public void setContentForStep(String stepId, String contentId) {
 		contentMappingCache.put(stepId, contentId);
+		changed();
 	}
 	
 	public String getCachedContent(String stepId) {
@@ -119,4 +196,169 @@ public class LocalSession {
 	public Popup getContactsPopup() {
 		return contactPopup;
 	}
+	
+	/**
+	 * Starts the assembly of a new assistance step. Steps started before become obsolete and must not be displayed anymore.
+	 * The generation is not part of the session snapshot.
+	 * @return Generation of the new step.
+	 */
+	public long startRender() {
+		return ++renderGeneration;
+	}
+	
+	/**
+	 * Checks if an assistance step is still the latest one started for the session.
+	 * @param generation Generation of the step as returned by {@link #startRender()}.
+	 * @return <code>true</code> if no newer step has been started, otherwise <code>false</code>.
+	 */
+	public boolean isCurrentRender(long generation) {
+		return generation == renderGeneration;
+	}
+	
+	/**
+	 * Returns the version of the session state. The version is assigned by the session repository each time a snapshot is stored.
+	 * @return Version of the stored snapshot the session state is based on.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Sets the version of the session state after a snapshot has been stored.
+	 * @param version Version of the stored snapshot.
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	/**
+	 * Sets a handler which is called whenever the state of the session changes.
+	 * @param changeHandler Handler for state changes. May be <code>null</code>.
+	 */
+	public void setChangeHandler(Handler<LocalSession> changeHandler) {
+		this.changeHandler = changeHandler;
+	}
+	
+	private void changed() {
+		if (changeHandler != null) {
+			changeHandler.handle(this);
+		}
+	}
+	
+	/**
+	 * Creates a snapshot of the session state. Process instances and elements are referenced by their ids.
+	 * @return JSON object representing the session state.
+	 */
+	public JsonObject asJson() {
+		JsonObject json = new JsonObject()
+			.putString("sessionId", sessionId)
+			.putString("userId", userId)
+			.putString("token", token)
+			.putNumber("progress", progress)
+			.putNumber("version", version);
+		if (activeProcessInstance != null) {
+			json.putString("processInstanceId", activeProcessInstance.getId());
+		}
+		if (activeElement != null) {
+			json.putString("elementId", activeElement.getId());
+		}
+		// Step IDs may contain characters not allowed in field names of Mongo DB documents, hence the mapping is stored as array.
+		JsonArray contentMapping = new JsonArray();
+		for (Map.Entry<String, String> entry : contentMappingCache.entrySet()) {
+			contentMapping.addObject(new JsonObject()
+				.putString("stepId", entry.getKey())
+				.putString("contentId", entry.getValue()));
+		}
+		json.putArray("contentMapping", contentMapping);
+		json.putArray("displayHistory", displayHistory.asJson());
+		return json;
+	}
+	
+	/**
+	 * Restores a session from a snapshot. Process instance and active element are retrieved from the process knowledge service.
+	 * If they cannot be retrieved, the session is restored without a running process.
+	 * @param snapshot Snapshot as created by {@link #asJson()}.
+	 * @param pkiConnector Connector for the process knowledge service.
+	 * @param resultHandler Handler for the restored session.
+	 */
+	public static void restore(JsonObject snapshot, final PKIConnector pkiConnector, final AsyncResultHandler<LocalSession> resultHandler) {
+		final LocalSession session = new LocalSession(snapshot.getString("sessionId"), snapshot.getString("userId"));
+		session.token = snapshot.getString("token");
+		Number progress = snapshot.getNumber("progress");
+		session.progress = progress != null ? progress.doubleValue() : 0.0d;
+		session.version = snapshot.getLong("version", 0l);
+		for (Object mapping : snapshot.getArray("contentMapping", new JsonArray())) {
+			JsonObject stepMapping = (JsonObject) mapping;
+			session.contentMappingCache.put(stepMapping.getString("stepId"), stepMapping.getString("contentId"));
+		}
+		session.displayHistory.addAll(snapshot.getArray("displayHistory", new JsonArray()));
+		
+		final String processInstanceId = snapshot.getString("processInstanceId");
+		final String elementId = snapshot.getString("elementId");
+		if (processInstanceId == null) {
+			completeRestore(session, resultHandler);
+			return;
+		}
+		pkiConnector.getProcessInstance(processInstanceId, new AsyncResultHandler<ProcessInstance>() {
+			
+			@Override
+			public void handle(AsyncResult<ProcessInstance> instanceRequest) {
+				if (instanceRequest.failed()) {
+					logger.warn("Failed to restore process instance of session " + session.getId() + ".", instanceRequest.cause());
+					completeRestore(session, resultHandler);
+					return;
+				}
+				ProcessInstance processInstance = instanceRequest.result();
+				session.processInstances.put(processInstance.getId(), processInstance);
+				session.activeProcessInstance = processInstance;
+				if (elementId == null) {
+					completeRestore(session, resultHandler);
+					return;
+				}
+				ProcessElementInstance cachedElement = pkiConnector.getCachedProcessElementInstance(processInstanceId, elementId);
+				if (cachedElement != null) {
+					session.activeElement = cachedElement;
+					completeRestore(session, resultHandler);
+					return;
+				}
+				pkiConnector.getCurrentElement(processInstanceId, session.getId(), new AsyncResultHandler<ProcessElementInstance>() {
+					
+					@Override
+					public void handle(AsyncResult<ProcessElementInstance> elementRequest) {
+						if (elementRequest.succeeded()) {
+							session.activeElement = elementRequest.result();
+						} else {
+							logger.warn("Failed to restore active element of session " + session.getId() + ".", elementRequest.cause());
+						}
+						completeRestore(session, resultHandler);
+					}
+				});
+			}
+		});
+	}
+	
+	private static void completeRestore(final LocalSession session, AsyncResultHandler<LocalSession> resultHandler) {
+		resultHandler.handle(new AsyncResult<LocalSession>() {
+			
+			@Override
+			public boolean succeeded() {
+				return true;
+			}
+			
+			@Override
+			public LocalSession result() {
+				return session;
+			}
+			
+			@Override
+			public boolean failed() {
+				return false;
+			}
+			
+			@Override
+			public Throwable cause() {
+				return null;
+			}
+		});
+	}
 }
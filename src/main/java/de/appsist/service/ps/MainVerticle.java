@@ -1,7 +1,15 @@
 package de.appsist.service.ps;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 import org.vertx.java.platform.Verticle;
@@ -15,11 +23,13 @@ import de.appsist.commons.misc.StatusSignalSender;
 public class MainVerticle extends Verticle {
 	private static final Logger logger = LoggerFactory.getLogger(MainVerticle.class);
 	public static final String SERVICE_ID = "psd";
+	private static final String WARM_UP_ADDRESS = SERVICE_ID + ":warmUpComplete";
 	
 	private ModuleConfiguration config;
 	private ConnectorRegistry connectors;
 	private HandlerRegistry handlers;
 	private StatusSignalSender statusSignalSender;
+	private Set<Integer> warmShards; // Indexes of the instances which have completed their warm-up, only tracked by the primary instance.
 	
 	@Override
 	public void start() {
@@ -30,33 +40,116 @@ public class MainVerticle extends Verticle {
 			System.exit(1);
 		}
 		
-		// Deploy db on demand. 
-		if (config.deployDb()) {
-			container.deployModule("io.vertx~mod-mongo-persistor~2.1.0", config.getDBConfiguration(), new Handler<AsyncResult<String>>() {
+		final boolean isPrimaryInstance = config.getShardIndex() == 0;
+		if (isPrimaryInstance) {
+			// Each instance fills its own caches, the service is ready when all of them have completed their warm-up.
+			warmShards = new HashSet<>();
+			vertx.eventBus().registerLocalHandler(WARM_UP_ADDRESS, new Handler<Message<Integer>>() {
+				
 				@Override
-				public void handle(AsyncResult<String> result) {
-					if (result.succeeded()) {
-						logger.debug("Deployed Mongo DB connector.");
-					} else {
-						logger.warn("Failed to deploy Mongo DB connector.", result.cause());
-					}
+				public void handle(Message<Integer> message) {
+					completeWarmUp(message.body());
 				}
 			});
+			// Deploy db on demand. 
+			if (config.deployDb()) {
+				container.deployModule("io.vertx~mod-mongo-persistor~2.1.0", config.getDBConfiguration(), new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> result) {
+						if (result.succeeded()) {
+							logger.debug("Deployed Mongo DB connector.");
+						} else {
+							logger.warn("Failed to deploy Mongo DB connector.", result.cause());
+						}
+					}
+				});
+			}
+			deployAdditionalInstances();
 		}
 		
 		connectors = new ConnectorRegistry(vertx, config);
 		handlers = new HandlerRegistry(vertx, connectors, config);
 		handlers.init();
 		
+		warmUp(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				if (isPrimaryInstance) {
+					completeWarmUp(0);
+				} else {
+					vertx.eventBus().send(WARM_UP_ADDRESS, config.getShardIndex());
+					logger.debug("Instance " + config.getShardIndex() + " of APPsist service \"Performance Support\" has been initialized.");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Records the completed warm-up of an instance. When all instances have completed their warm-up, the service is reported to be ready.
+	 * @param shardIndex Index of the instance.
+	 */
+	private void completeWarmUp(int shardIndex) {
+		if (!warmShards.add(shardIndex) || statusSignalSender != null) return;
+		if (warmShards.size() < config.getInstances()) {
+			logger.debug("Instance " + shardIndex + " has completed its warm-up, " + (config.getInstances() - warmShards.size()) + " instances remaining.");
+			return;
+		}
 		statusSignalSender = new StatusSignalSender("performance-support", vertx, config.getStatusSignalConfig());
 		statusSignalSender.start();
-		
 		logger.debug("APPsist service \"Performance Support\" has been initialized with the following configuration:\n" + config.asJson().encodePrettily());
 	}
 	
+	/**
+	 * Loads the definitions of the configured processes into the cache of the PKI connector of this instance.
+	 * @param completionHandler Handler called when the warm-up is complete or has timed out. Called immediately if no processes are configured.
+	 */
+	private void warmUp(Handler<Void> completionHandler) {
+		JsonObject warmUpConfig = config.getWarmUpConfiguration();
+		JsonArray processIds = warmUpConfig.getArray("processes", new JsonArray());
+		if (processIds.size() == 0) {
+			completionHandler.handle(null);
+			return;
+		}
+		List<String> processIdList = new ArrayList<>();
+		for (Object processId : processIds) {
+			processIdList.add((String) processId);
+		}
+		ProcessWarmUp warmUp = new ProcessWarmUp(vertx, connectors.pkiConnector(), warmUpConfig.getInteger("parallelism", 4), warmUpConfig.getBoolean("includeCalledProcesses", true));
+		warmUp.start(processIdList, warmUpConfig.getLong("timeout", 60000), completionHandler);
+	}
+	
+	/**
+	 * Deploys the additional instances of this verticle. Each instance handles its own share of the user sessions.
+	 */
+	private void deployAdditionalInstances() {
+		int instances = config.getInstances();
+		for (int i = 1; i < instances; i++) {
+			final int shardIndex = i;
+			JsonObject instanceConfig = config.asJson().copy()
+				.putNumber("instances", instances)
+				.putNumber("shard", shardIndex);
+			container.deployVerticle(MainVerticle.class.getName(), instanceConfig, 1, new Handler<AsyncResult<String>>() {
+				
+				@Override
+				public void handle(AsyncResult<String> result) {
+					if (result.failed()) {
+						logger.warn("Failed to deploy instance " + shardIndex + " of the service.", result.cause());
+						// The instance will never report its warm-up.
+						completeWarmUp(shardIndex);
+					}
+				}
+			});
+		}
+	}
+	
 	@Override
 	public void stop() {
-		statusSignalSender.stop();
+		if (statusSignalSender != null) {
+			statusSignalSender.stop();
+		}
+		handlers.sessionStore().close();
+		connectors.cnsConnector().flush();
 		logger.debug("APPsist service \"Performance Support\" has been stopped.");
 	}
 }
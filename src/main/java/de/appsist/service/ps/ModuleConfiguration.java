@@ -48,10 +48,52 @@ public class ModuleConfiguration {
 		return webserver.getInteger("port");
 	}
 	
+	/**
+	 * Returns the maximum size of HTTP request bodies.
+	 * @return Maximum body size in bytes.
+	 */
+	public int getMaxBodySize() {
+		JsonObject webserver = json.getObject("webserver");
+		return webserver.getInteger("maxBodySize", 65536);
+	}
+	
+	/**
+	 * Returns the number of verticle instances to deploy.
+	 * @return Number of instances. Defaults to one instance, <code>0</code> is replaced by the number of available processors.
+	 */
+	public int getInstances() {
+		int instances = json.getInteger("instances", 1);
+		return instances > 0 ? instances : Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Returns the index of the verticle instance this configuration has been created for.
+	 * @return Index of the instance, <code>0</code> for the instance deployed by the platform.
+	 */
+	public int getShardIndex() {
+		return json.getInteger("shard", 0);
+	}
+	
 	public JsonObject getServicesConfiguration() {
 		return json.getObject("services");
 	}
 	
+	public JsonObject getSessionConfiguration() {
+		return json.getObject("sessions", new JsonObject());
+	}
+	
+	public JsonObject getAssistanceConfiguration() {
+		return json.getObject("assistance", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration of the warm-up performed on startup.
+	 * @return Warm-up configuration, empty if no warm-up is configured.
+	 */
+	public JsonObject getWarmUpConfiguration() {
+		return json.getObject("warmUp", new JsonObject());
+	}
+	
 	public boolean deployDb() {
 		return json.getValue("db") instanceof JsonObject;
 	}
@@ -60,7 +102,14 @@ public class ModuleConfiguration {
 		return json.getObject("db");
 	}
 	
+	/**
+	 * Returns the event bus address of the Mongo DB connector.
+	 * @return Address configured as [db] or, if the connector is deployed by the service, as [db.address]. Defaults to the address of the connector module.
+	 */
 	public String getDBAddress() {
+		if (deployDb()) {
+			return getDBConfiguration().getString("address", "vertx.mongopersistor");
+		}
 		return json.getString("db");
 	}
 	
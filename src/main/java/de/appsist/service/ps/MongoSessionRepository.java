@@ -0,0 +1,194 @@
+package de.appsist.service.ps;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Session repository storing the session snapshots in a Mongo DB collection, accessed via the Mongo DB connector (mod-mongo-persistor).
+ * Snapshots survive restarts and redeployments of the service. They are only consulted when a session is not available locally, hence each session must be served by a single service instance.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class MongoSessionRepository implements SessionRepository {
+	private static final Logger logger = LoggerFactory.getLogger(MongoSessionRepository.class);
+	private static final long REQUEST_TIMEOUT = 5000l;
+	
+	private final EventBus eventBus;
+	private final String address;
+	private final String collection;
+	private final long ttl;
+	private final Handler<AsyncResult<Message<JsonObject>>> writeHandler;
+	
+	/**
+	 * Creates the repository.
+	 * @param vertx Vert.x instance.
+	 * @param address Event bus address of the Mongo DB connector.
+	 * @param collection Name of the collection to store the snapshots in.
+	 * @param ttl Time in milliseconds a snapshot is valid after its last update.
+	 */
+	public MongoSessionRepository(Vertx vertx, String address, String collection, long ttl) {
+		this.eventBus = vertx.eventBus();
+		this.address = address;
+		this.collection = collection;
+		this.ttl = ttl;
+		this.writeHandler = new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> writeRequest) {
+				String error = getError(writeRequest);
+				if (error != null) {
+					logger.warn("Failed to update session snapshots: " + error);
+				}
+			}
+		};
+	}
+	
+	@Override
+	public void load(final String sessionId, final AsyncResultHandler<JsonObject> resultHandler) {
+		JsonObject request = new JsonObject()
+			.putString("action", "findone")
+			.putString("collection", collection)
+			.putObject("matcher", new JsonObject().putString("_id", sessionId));
+		eventBus.sendWithTimeout(address, request, REQUEST_TIMEOUT, new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> loadRequest) {
+				String error = getError(loadRequest);
+				if (error != null) {
+					resultHandler.handle(new Result<JsonObject>(null, new Exception("Failed to load snapshot: " + error)));
+					return;
+				}
+				JsonObject document = loadRequest.result().body().getObject("result");
+				if (document == null) {
+					resultHandler.handle(new Result<JsonObject>(null, null));
+					return;
+				}
+				if (document.getLong("updated", 0l) < System.currentTimeMillis() - ttl) {
+					// The session has expired while the service was down.
+					remove(sessionId);
+					resultHandler.handle(new Result<JsonObject>(null, null));
+					return;
+				}
+				document.removeField("_id");
+				document.removeField("updated");
+				resultHandler.handle(new Result<JsonObject>(document, null));
+			}
+		});
+	}
+	
+	@Override
+	public void save(String sessionId, JsonObject snapshot, long expectedVersion, final AsyncResultHandler<Long> resultHandler) {
+		// Each session is written by a single instance, hence the expected version is not checked.
+		final long version = Math.max(expectedVersion, 0l) + 1;
+		JsonObject document = snapshot.copy()
+			.putString("_id", sessionId)
+			.putNumber("version", version)
+			.putNumber("updated", System.currentTimeMillis());
+		JsonObject request = new JsonObject()
+			.putString("action", "save")
+			.putString("collection", collection)
+			.putObject("document", document);
+		eventBus.sendWithTimeout(address, request, REQUEST_TIMEOUT, new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> saveRequest) {
+				String error = getError(saveRequest);
+				if (error != null) {
+					resultHandler.handle(new Result<Long>(null, new Exception("Failed to save snapshot: " + error)));
+				} else {
+					resultHandler.handle(new Result<Long>(version, null));
+				}
+			}
+		});
+	}
+	
+	@Override
+	public void remove(String sessionId) {
+		JsonObject request = new JsonObject()
+			.putString("action", "delete")
+			.putString("collection", collection)
+			.putObject("matcher", new JsonObject().putString("_id", sessionId));
+		eventBus.sendWithTimeout(address, request, REQUEST_TIMEOUT, writeHandler);
+	}
+	
+	/**
+	 * Removes all snapshots which have not been updated within the time to live.
+	 */
+	public void removeExpiredSnapshots() {
+		JsonObject matcher = new JsonObject()
+			.putObject("updated", new JsonObject().putNumber("$lt", System.currentTimeMillis() - ttl));
+		JsonObject request = new JsonObject()
+			.putString("action", "delete")
+			.putString("collection", collection)
+			.putObject("matcher", matcher);
+		eventBus.sendWithTimeout(address, request, REQUEST_TIMEOUT, writeHandler);
+	}
+	
+	@Override
+	public boolean isShared() {
+		return false;
+	}
+	
+	@Override
+	public void claim(String sessionId, String ownerId, AsyncResultHandler<Boolean> resultHandler) {
+		// Each session is served by a single instance.
+		resultHandler.handle(new Result<Boolean>(true, null));
+	}
+	
+	@Override
+	public void close() {
+		// Requests are sent via the event bus, nothing to release.
+	}
+	
+	/**
+	 * Returns the error of a request to the Mongo DB connector.
+	 * @param request Request to check.
+	 * @return Error message or <code>null</code> if the request succeeded.
+	 */
+	private static String getError(AsyncResult<Message<JsonObject>> request) {
+		if (request.failed()) {
+			return request.cause().getMessage();
+		}
+		JsonObject body = request.result().body();
+		if (!"ok".equals(body.getString("status"))) {
+			return body.getString("message", "Unknown error.");
+		}
+		return null;
+	}
+	
+	private static class Result<T> implements AsyncResult<T> {
+		private final T result;
+		private final Throwable cause;
+		
+		Result(T result, Throwable cause) {
+			this.result = result;
+			this.cause = cause;
+		}
+		
+		@Override
+		public T result() {
+			return result;
+		}
+		
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+		
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+		
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.pki.connector.PKIConnector;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Loads process definitions into the cache of the PKI connector when the service is started, so that the first workers do not have to wait for them.
+ * Definitions are requested with a bounded number of concurrent requests. Optionally, the processes called by call activities are loaded as well.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class ProcessWarmUp {
+	private static final Logger logger = LoggerFactory.getLogger(ProcessWarmUp.class);
+	
+	private final Vertx vertx;
+	private final PKIConnector pkiConnector;
+	private final int parallelism;
+	private final boolean includeCalledProcesses;
+	private final Deque<String> pendingProcessIds;
+	private final Set<String> requestedProcessIds;
+	private Handler<Void> completionHandler;
+	private Long timeoutTimerId;
+	private long startTime;
+	private int activeRequests;
+	private int loadedCount;
+	private int failedCount;
+	private boolean isCompleted;
+	
+	/**
+	 * Creates the warm-up.
+	 * @param vertx Vert.x instance.
+	 * @param pkiConnector Connector for the process knowledge service whose cache is filled.
+	 * @param parallelism Maximum number of concurrent requests.
+	 * @param includeCalledProcesses If <code>true</code>, the definitions of processes called by loaded processes are loaded as well.
+	 */
+	public ProcessWarmUp(Vertx vertx, PKIConnector pkiConnector, int parallelism, boolean includeCalledProcesses) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The number of concurrent requests must be positive.");
+		}
+		this.vertx = vertx;
+		this.pkiConnector = pkiConnector;
+		this.parallelism = parallelism;
+		this.includeCalledProcesses = includeCalledProcesses;
+		this.pendingProcessIds = new ArrayDeque<>();
+		this.requestedProcessIds = new HashSet<>();
+	}
+	
+	/**
+	 * Starts loading the given process definitions.
+	 * @param processIds IDs of the processes to load.
+	 * @param timeout Time in milliseconds after which the warm-up is considered complete even if definitions are still missing.
+	 * @param completionHandler Handler called once when all definitions have been requested and answered or the timeout has passed.
+	 */
+	public void start(Collection<String> processIds, long timeout, Handler<Void> completionHandler) {
+		this.completionHandler = completionHandler;
+		this.startTime = System.currentTimeMillis();
+		for (String processId : processIds) {
+			enqueue(processId);
+		}
+		if (timeout > 0) {
+			timeoutTimerId = vertx.setTimer(timeout, new Handler<Long>() {
+				
+				@Override
+				public void handle(Long timerId) {
+					timeoutTimerId = null;
+					logger.warn("Warm-up timed out, " + (pendingProcessIds.size() + activeRequests) + " process definitions have not been loaded yet.");
+					complete();
+				}
+			});
+		}
+		loadNext();
+	}
+	
+	private void enqueue(String processId) {
+		if (requestedProcessIds.add(processId)) {
+			pendingProcessIds.add(processId);
+		}
+	}
+	
+	private void loadNext() {
+		while (activeRequests < parallelism && !pendingProcessIds.isEmpty()) {
+			final String processId = pendingProcessIds.poll();
+			activeRequests++;
+			pkiConnector.getProcessDefinition(processId, Metrics.timed("pki", "getProcessDefinition", new AsyncResultHandler<ProcessDefinition>() {
+				
+				@Override
+				public void handle(AsyncResult<ProcessDefinition> definitionRequest) {
+					activeRequests--;
+					if (definitionRequest.succeeded()) {
+						loadedCount++;
+						if (includeCalledProcesses) {
+							Set<String> calledProcesses = new HashSet<>();
+							UserInteractionHandler.collectCalledProcesses(definitionRequest.result().asJson(), calledProcesses);
+							for (String calledProcess : calledProcesses) {
+								enqueue(calledProcess);
+							}
+						}
+					} else {
+						failedCount++;
+						logger.warn("Failed to load definition of process " + processId + " during warm-up.", definitionRequest.cause());
+					}
+					loadNext();
+				}
+			}));
+		}
+		if (activeRequests == 0 && pendingProcessIds.isEmpty()) {
+			complete();
+		}
+	}
+	
+	private void complete() {
+		if (isCompleted) return;
+		isCompleted = true;
+		if (timeoutTimerId != null) {
+			vertx.cancelTimer(timeoutTimerId);
+		}
+		logger.info("Warm-up loaded " + loadedCount + " process definitions in " + (System.currentTimeMillis() - startTime) + " ms, " + failedCount + " failed.");
+		completionHandler.handle(null);
+	}
+}
@@ -0,0 +1,164 @@
+package de.appsist.service.ps;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Decoder for the JSON bodies of HTTP requests.
+ * Only the given top level fields are extracted, the body is parsed from its bytes with a streaming parser. Bodies exceeding the maximum size are rejected with status code 413, malformed bodies with status code 400.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class RequestBodyDecoder {
+	private static final Logger logger = LoggerFactory.getLogger(RequestBodyDecoder.class);
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final JsonFactory factory = mapper.getFactory();
+	
+	private final int maxBodySize;
+	private final Set<String> fields;
+	
+	/**
+	 * Creates a decoder.
+	 * @param maxBodySize Maximum size of a request body in bytes.
+	 * @param fields Names of the top level fields to extract.
+	 */
+	public RequestBodyDecoder(int maxBodySize, String... fields) {
+		this.maxBodySize = maxBodySize;
+		this.fields = new HashSet<>(Arrays.asList(fields));
+	}
+	
+	/**
+	 * Reads and decodes the body of a request. If the body is too large or malformed, the request is answered and the handler is not called.
+	 * @param request Request to read the body of.
+	 * @param bodyHandler Handler for the decoded body. Receives an empty object if the body is empty.
+	 */
+	public void decode(final HttpServerRequest request, final Handler<JsonObject> bodyHandler) {
+		String contentLength = request.headers().get("Content-Length");
+		long length = -1;
+		if (contentLength != null) {
+			try {
+				length = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				length = -1;
+			}
+			if (length < 0) {
+				reject(request, 400, "Invalid content length.");
+				return;
+			}
+			if (length > maxBodySize) {
+				reject(request, 413, "Request body too large.");
+				return;
+			}
+		}
+		final Buffer buffer = new Buffer(length >= 0 ? (int) Math.min(length, maxBodySize) : 256);
+		final boolean[] isRejected = { false };
+		request.dataHandler(new Handler<Buffer>() {
+			
+			@Override
+			public void handle(Buffer data) {
+				if (isRejected[0]) return;
+				if (buffer.length() + data.length() > maxBodySize) {
+					isRejected[0] = true;
+					reject(request, 413, "Request body too large.");
+					return;
+				}
+				buffer.appendBuffer(data);
+			}
+		});
+		request.endHandler(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				if (isRejected[0]) return;
+				JsonObject body;
+				try {
+					body = decode(buffer.getBytes());
+				} catch (IOException e) {
+					logger.debug("Received malformed request body: " + e.getMessage());
+					reject(request, 400, "Malformed request body.");
+					return;
+				}
+				bodyHandler.handle(body);
+			}
+		});
+	}
+	
+	/**
+	 * Extracts the configured fields from a JSON object.
+	 * @param bytes UTF-8 encoded JSON object.
+	 * @return JSON object with the extracted fields. Fields missing in the input are missing in the result as well.
+	 * @throws IOException The input is not a JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public JsonObject decode(byte[] bytes) throws IOException {
+		JsonObject body = new JsonObject();
+		if (bytes.length == 0) {
+			return body;
+		}
+		try (JsonParser parser = factory.createParser(bytes)) {
+			JsonToken token = parser.nextToken();
+			if (token == null) {
+				return body;
+			}
+			if (token != JsonToken.START_OBJECT) {
+				throw new IOException("Expected JSON object.");
+			}
+			while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				token = parser.nextToken();
+				if (token == null) {
+					throw new IOException("Unexpected end of input.");
+				}
+				if (!fields.contains(fieldName)) {
+					parser.skipChildren();
+					continue;
+				}
+				switch (token) {
+				case VALUE_STRING:
+					body.putString(fieldName, parser.getText());
+					break;
+				case VALUE_NUMBER_INT:
+				case VALUE_NUMBER_FLOAT:
+					body.putNumber(fieldName, parser.getNumberValue());
+					break;
+				case VALUE_TRUE:
+				case VALUE_FALSE:
+					body.putBoolean(fieldName, parser.getBooleanValue());
+					break;
+				case START_OBJECT:
+					body.putObject(fieldName, new JsonObject(parser.readValueAs(Map.class)));
+					break;
+				case START_ARRAY:
+				case VALUE_NULL:
+				default:
+					parser.skipChildren();
+				}
+			}
+			if (token != JsonToken.END_OBJECT) {
+				throw new IOException("Unexpected token: " + token);
+			}
+		}
+		return body;
+	}
+	
+	private static void reject(HttpServerRequest request, int statusCode, String message) {
+		request.response()
+			.setStatusCode(statusCode)
+			.putHeader("Connection", "close")
+			.end(message);
+	}
+}
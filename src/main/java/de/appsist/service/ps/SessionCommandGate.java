@@ -0,0 +1,160 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Gate serializing the commands of each session.
+ * Commands of a session are executed one after another, a command is complete as soon as its response has been sent. A command identical to the last one pending for the session is not executed again but answered with the response of the pending command. Repetitions arriving after the response has been sent are detected by the command handlers.
+ * The gate is not thread safe and has to be used from the event loop of the verticle owning it.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class SessionCommandGate {
+	private static final Logger logger = LoggerFactory.getLogger(SessionCommandGate.class);
+	
+	private final Vertx vertx;
+	private final long commandTimeout;
+	private final Map<String, Deque<Command>> queues; // <sessionId, pending commands with the running one first>
+	private long timeoutCount;
+	
+	/**
+	 * Creates a command gate.
+	 * @param vertx Vert.x instance.
+	 * @param commandTimeout Time in milliseconds after which a command is answered with status code 504 and the next command of the session is started. If <code>0</code>, commands do not time out.
+	 */
+	public SessionCommandGate(Vertx vertx, long commandTimeout) {
+		this.vertx = vertx;
+		this.commandTimeout = commandTimeout;
+		this.queues = new HashMap<>();
+	}
+	
+	/**
+	 * Submits a command for execution.
+	 * @param sessionId ID of the session the command belongs to.
+	 * @param commandKey Key identifying the command including its arguments. Commands with the same key are considered identical.
+	 * @param response Response for the client which submitted the command.
+	 * @param command Handler executing the command. Receives the response to answer the command with.
+	 */
+	public void submit(String sessionId, String commandKey, ClientResponse response, Handler<ClientResponse> command) {
+		Deque<Command> queue = queues.get(sessionId);
+		if (queue == null) {
+			queue = new ArrayDeque<>();
+			queues.put(sessionId, queue);
+		}
+		Command lastCommand = queue.peekLast();
+		if (lastCommand != null && lastCommand.key.equals(commandKey)) {
+			lastCommand.responses.add(response);
+			Metrics.countDuplicateCommand();
+			logger.debug("Merged duplicate command " + commandKey + " for session " + sessionId + ".");
+			return;
+		}
+		Command pendingCommand = new Command(sessionId, commandKey, command);
+		pendingCommand.responses.add(response);
+		queue.addLast(pendingCommand);
+		if (queue.size() == 1) {
+			start(pendingCommand);
+		}
+	}
+	
+	/**
+	 * Returns the number of commands which did not complete in time.
+	 * @return Number of timed out commands.
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+	
+	/**
+	 * Returns the number of sessions with pending commands.
+	 * @return Number of sessions.
+	 */
+	public int getActiveSessionCount() {
+		return queues.size();
+	}
+	
+	private void start(final Command command) {
+		if (commandTimeout > 0) {
+			command.timerId = vertx.setTimer(commandTimeout, new Handler<Long>() {
+				
+				@Override
+				public void handle(Long timerId) {
+					command.timerId = -1;
+					timeoutCount++;
+					logger.warn("Command " + command.key + " for session " + command.sessionId + " timed out.");
+					command.setStatusCode(504).end("Command timed out.");
+				}
+			});
+		}
+		command.action.handle(command);
+	}
+	
+	private void complete(Command command) {
+		if (command.timerId != -1) {
+			vertx.cancelTimer(command.timerId);
+		}
+		Deque<Command> queue = queues.get(command.sessionId);
+		queue.remove(command);
+		if (queue.isEmpty()) {
+			queues.remove(command.sessionId);
+		} else {
+			start(queue.peekFirst());
+		}
+	}
+	
+	/**
+	 * Pending command. The command is answered to all clients which submitted it.
+	 */
+	private class Command implements ClientResponse {
+		final String sessionId;
+		final String key;
+		final Handler<ClientResponse> action;
+		final List<ClientResponse> responses;
+		int statusCode = 200;
+		boolean isComplete;
+		long timerId = -1;
+		
+		Command(String sessionId, String key, Handler<ClientResponse> action) {
+			this.sessionId = sessionId;
+			this.key = key;
+			this.action = action;
+			this.responses = new ArrayList<>(1);
+		}
+		
+		@Override
+		public ClientResponse setStatusCode(int statusCode) {
+			this.statusCode = statusCode;
+			return this;
+		}
+		
+		@Override
+		public void end() {
+			end(null);
+		}
+		
+		@Override
+		public void end(String body) {
+			if (isComplete) return;
+			isComplete = true;
+			for (ClientResponse response : responses) {
+				response.setStatusCode(statusCode);
+				if (body != null) {
+					response.end(body);
+				} else {
+					response.end();
+				}
+			}
+			complete(this);
+		}
+	}
+}
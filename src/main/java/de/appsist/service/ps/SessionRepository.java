@@ -0,0 +1,53 @@
+package de.appsist.service.ps;
+
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Backend storing snapshots of local sessions outside of the memory of the verticle.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public interface SessionRepository {
+	/**
+	 * Loads the snapshot of a session.
+	 * @param sessionId ID of the session to load.
+	 * @param resultHandler Handler for the snapshot. The result is <code>null</code> if no snapshot for the session is stored.
+	 */
+	public void load(String sessionId, AsyncResultHandler<JsonObject> resultHandler);
+	
+	/**
+	 * Stores the snapshot of a session.
+	 * The snapshot is only written if the stored snapshot still has the expected version, i.e., if it has not been modified by another service instance since this instance has loaded or written it. The written snapshot receives the next version.
+	 * @param sessionId ID of the session.
+	 * @param snapshot Session snapshot as returned by {@link LocalSession#asJson()}.
+	 * @param expectedVersion Version of the stored snapshot the modifications are based on, <code>0</code> if no snapshot has been stored yet. If negative, the stored snapshot is replaced regardless of its version.
+	 * @param resultHandler Handler for the version of the written snapshot. The result is <code>null</code> if the snapshot has not been written as the stored snapshot has another version.
+	 */
+	public void save(String sessionId, JsonObject snapshot, long expectedVersion, AsyncResultHandler<Long> resultHandler);
+	
+	/**
+	 * Removes the snapshot of a session.
+	 * @param sessionId ID of the session.
+	 */
+	public void remove(String sessionId);
+	
+	/**
+	 * Checks if the snapshots are shared with other service instances which may modify them.
+	 * @return <code>true</code> if the repository has to be consulted on each session access, <code>false</code> if it is only required when a session is missing locally.
+	 */
+	public boolean isShared();
+	
+	/**
+	 * Claims the ownership of a session. Process events are published to all service instances, only the owner of a session handles them.
+	 * The ownership is granted for a limited time and renewed with each claim of the owner. If the owner does not claim the session within this time, another instance may take over.
+	 * @param sessionId ID of the session.
+	 * @param ownerId ID of the service instance claiming the session.
+	 * @param resultHandler Handler for the result of the claim. Receives <code>true</code> if the instance owns the session, <code>false</code> if it is owned by another instance.
+	 */
+	public void claim(String sessionId, String ownerId, AsyncResultHandler<Boolean> resultHandler);
+	
+	/**
+	 * Releases the resources of the repository. Pending operations are completed.
+	 */
+	public void close();
+}
@@ -0,0 +1,513 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.pki.connector.PKIConnector;
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Store for the local sessions of the service.
+ * Sessions expire if they have not been accessed within the configured time to live. If the maximum number of sessions is reached, the least recently used session is evicted. Evicted and expired sessions are counted in the {@link Metrics}.
+ * Optionally, snapshots of the sessions are written to a {@link SessionRepository} and restored from there when a session is requested which is not available locally.
+ * Snapshots are written behind: Modifications are collected for the configured write delay and each modified session is written once. Snapshots of a session are written one after another, failed writes are retried. If a snapshot has been modified by another service instance in the meantime, the local session is discarded and restored from the repository on its next access.
+ * If the repository is shared with other service instances, process events of a session are only handled by the instance owning the session, see {@link #getOwned(String, Handler)}.
+ * The store is not thread safe and has to be accessed from the event loop of the verticle owning it.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class SessionStore {
+	private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+	private static final long MAX_SWEEP_INTERVAL = 60000l;
+	private static final long SAVE_RETRY_DELAY = 5000l;
+	
+	private final Vertx vertx;
+	private final String ownerId; // ID of this store when claiming sessions
+	private final int maxSessions;
+	private final long ttl;
+	private final LinkedHashMap<String, Entry> entries; // <sessionId, Entry> in access order
+	private final long sweepTimerId;
+	private final Map<String, List<Handler<LocalSession>>> pendingLoads; // <sessionId, handlers waiting for the session>
+	private final Map<String, LocalSession> modifiedSessions; // <sessionId, session to write to the repository>, kept until written even if the session is evicted or expires
+	private final Set<String> savingSessions; // IDs of sessions with a snapshot being written
+	private final Set<String> replacedSessions; // IDs of sessions whose next snapshot replaces the stored one regardless of its version
+	private final Set<String> pendingRemovals; // IDs of sessions to remove from the repository once the running write is complete
+	private final Handler<LocalSession> changeHandler;
+	private final Deque<Handler<Void>> queuedRestores; // Restores waiting for a free slot
+	private SessionRepository repository;
+	private PKIConnector pkiConnector;
+	private long writeDelay;
+	private int maxConcurrentRestores;
+	private int activeRestores;
+	private boolean isFlushScheduled;
+	private Long flushTimerId;
+	private Long retryTimerId;
+	
+	private static class Entry {
+		final LocalSession session;
+		long lastAccess;
+		
+		Entry(LocalSession session, long lastAccess) {
+			this.session = session;
+			this.lastAccess = lastAccess;
+		}
+	}
+	
+	/**
+	 * Creates a session store.
+	 * @param vertx Vert.x instance used to schedule the removal of expired sessions.
+	 * @param maxSessions Maximum number of sessions to keep.
+	 * @param ttl Time in milliseconds a session is kept without being accessed.
+	 */
+	public SessionStore(Vertx vertx, int maxSessions, long ttl) {
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("The maximum number of sessions must be positive.");
+		}
+		if (ttl < 1) {
+			throw new IllegalArgumentException("The time to live for sessions must be positive.");
+		}
+		this.vertx = vertx;
+		this.ownerId = UUID.randomUUID().toString();
+		this.maxSessions = maxSessions;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.pendingLoads = new HashMap<>();
+		this.modifiedSessions = new LinkedHashMap<>();
+		this.savingSessions = new HashSet<>();
+		this.replacedSessions = new HashSet<>();
+		this.pendingRemovals = new HashSet<>();
+		this.queuedRestores = new ArrayDeque<>();
+		this.changeHandler = new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				markModified(session);
+			}
+		};
+		this.sweepTimerId = vertx.setPeriodic(Math.min(ttl, MAX_SWEEP_INTERVAL), new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				removeExpiredSessions();
+			}
+		});
+	}
+	
+	/**
+	 * Sets a repository to persist the sessions in.
+	 * @param repository Repository for session snapshots.
+	 * @param pkiConnector Connector for the process knowledge service, used to restore the process state of sessions.
+	 * @param writeDelay Time in milliseconds modifications are collected before the snapshots of the modified sessions are written. If <code>0</code>, snapshots are written after the current event has been handled.
+	 * @param maxConcurrentRestores Maximum number of sessions restored at the same time. Further restores wait for a running one to complete, which limits the load on the process knowledge service after a restart.
+	 */
+	public void setRepository(SessionRepository repository, PKIConnector pkiConnector, long writeDelay, int maxConcurrentRestores) {
+		if (maxConcurrentRestores < 1) {
+			throw new IllegalArgumentException("The maximum number of concurrent restores must be positive.");
+		}
+		this.repository = repository;
+		this.pkiConnector = pkiConnector;
+		this.writeDelay = writeDelay;
+		this.maxConcurrentRestores = maxConcurrentRestores;
+	}
+	
+	/**
+	 * Retrieves the session with the given id and marks it as used.
+	 * If a repository is set, the session is restored from it if it is not available locally or if it has been modified by another service instance.
+	 * @param sessionId Session ID.
+	 * @param handler Handler for the session. Receives <code>null</code> if no session exists or the session has expired.
+	 */
+	public void get(final String sessionId, Handler<LocalSession> handler) {
+		final LocalSession localSession = get(sessionId);
+		if (repository == null || (localSession != null && !repository.isShared())) {
+			handler.handle(localSession);
+			return;
+		}
+		List<Handler<LocalSession>> waitingHandlers = pendingLoads.get(sessionId);
+		if (waitingHandlers != null) {
+			waitingHandlers.add(handler);
+			return;
+		}
+		waitingHandlers = new ArrayList<>();
+		waitingHandlers.add(handler);
+		pendingLoads.put(sessionId, waitingHandlers);
+		repository.load(sessionId, new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> loadRequest) {
+				if (loadRequest.failed()) {
+					logger.warn("Failed to load session " + sessionId + ", using local state.", loadRequest.cause());
+					completeLoad(sessionId, get(sessionId));
+					return;
+				}
+				JsonObject snapshot = loadRequest.result();
+				LocalSession currentSession = get(sessionId);
+				if (snapshot == null) {
+					if (currentSession != null && repository.isShared() && !hasLocalModifications(sessionId)) {
+						// The session has been closed by another service instance.
+						entries.remove(sessionId);
+						currentSession = null;
+					}
+					completeLoad(sessionId, currentSession);
+					return;
+				}
+				if (currentSession != null && (currentSession.getVersion() >= snapshot.getLong("version", 0l) || hasLocalModifications(sessionId))) {
+					// Local modifications are written first, a conflicting modification by another instance is detected when writing them.
+					completeLoad(sessionId, currentSession);
+					return;
+				}
+				restore(sessionId, snapshot);
+			}
+		});
+	}
+	
+	/**
+	 * Retrieves the session with the given id if this service instance owns it.
+	 * If the repository is shared, the ownership of the session is claimed first. Sessions owned by other instances are reported as missing, so that process events are handled by a single instance.
+	 * @param sessionId Session ID.
+	 * @param handler Handler for the session. Receives <code>null</code> if no session exists, the session has expired, or the session is owned by another instance.
+	 */
+	public void getOwned(final String sessionId, final Handler<LocalSession> handler) {
+		claim(sessionId, new Handler<Boolean>() {
+			
+			@Override
+			public void handle(Boolean isOwner) {
+				if (isOwner) {
+					get(sessionId, handler);
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Claims the ownership of a session for this service instance.
+	 * Without shared repository, each instance owns the sessions it serves. If the claim fails, the session is treated as owned to keep it working.
+	 * @param sessionId Session ID.
+	 * @param handler Handler for the result. Receives <code>true</code> if this instance owns the session, otherwise <code>false</code>.
+	 */
+	public void claim(final String sessionId, final Handler<Boolean> handler) {
+		if (repository == null || !repository.isShared()) {
+			handler.handle(true);
+			return;
+		}
+		repository.claim(sessionId, ownerId, new AsyncResultHandler<Boolean>() {
+			
+			@Override
+			public void handle(AsyncResult<Boolean> claimRequest) {
+				if (claimRequest.succeeded()) {
+					if (!claimRequest.result()) {
+						logger.debug("Session " + sessionId + " is owned by another service instance.");
+					}
+					handler.handle(claimRequest.result());
+				} else {
+					logger.warn("Failed to claim session " + sessionId + ", handling it locally.", claimRequest.cause());
+					handler.handle(true);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Restores a session from a snapshot as soon as the number of concurrent restores permits.
+	 * @param sessionId ID of the session to restore.
+	 * @param snapshot Snapshot of the session.
+	 */
+	private void restore(final String sessionId, final JsonObject snapshot) {
+		Handler<Void> restoreHandler = new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				activeRestores++;
+				LocalSession.restore(snapshot, pkiConnector, new AsyncResultHandler<LocalSession>() {
+					
+					@Override
+					public void handle(AsyncResult<LocalSession> restoreRequest) {
+						activeRestores--;
+						Handler<Void> queuedRestore = queuedRestores.poll();
+						if (queuedRestore != null) {
+							queuedRestore.handle(null);
+						}
+						LocalSession currentSession = get(sessionId);
+						if (restoreRequest.failed()) {
+							logger.warn("Failed to restore session " + sessionId + ", using local state.", restoreRequest.cause());
+							completeLoad(sessionId, currentSession);
+							return;
+						}
+						LocalSession restoredSession = restoreRequest.result();
+						if (currentSession != null && (hasLocalModifications(sessionId) || currentSession.getVersion() >= restoredSession.getVersion())) {
+							// The session has been stored or modified locally while it was restored, e.g., by a new support request.
+							logger.debug("Discarded restored snapshot of session " + sessionId + " as the local session is more recent.");
+							completeLoad(sessionId, currentSession);
+							return;
+						}
+						store(restoredSession);
+						logger.debug("Restored session " + sessionId + " from repository.");
+						completeLoad(sessionId, restoredSession);
+					}
+				});
+			}
+		};
+		if (activeRestores < maxConcurrentRestores) {
+			restoreHandler.handle(null);
+		} else {
+			queuedRestores.add(restoreHandler);
+		}
+	}
+	
+	/**
+	 * Returns the locally available session with the given id and marks it as used.
+	 * The repository is not consulted. Use {@link #get(String, Handler)} to retrieve sessions which may be stored in the repository.
+	 * @param sessionId Session ID.
+	 * @return Local session or <code>null</code> if no session exists or the session has expired.
+	 */
+	public LocalSession get(String sessionId) {
+		Entry entry = entries.get(sessionId);
+		if (entry == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (now - entry.lastAccess > ttl) {
+			entries.remove(sessionId);
+			Metrics.countSessionExpirations(1);
+			logger.debug("Session " + sessionId + " has expired.");
+			return null;
+		}
+		entry.lastAccess = now;
+		return entry.session;
+	}
+	
+	/**
+	 * Checks if a session with the given id is stored. The session is not marked as used.
+	 * @param sessionId Session ID.
+	 * @return <code>true</code> if the session exists, otherwise <code>false</code>.
+	 */
+	public boolean contains(String sessionId) {
+		return entries.containsKey(sessionId);
+	}
+	
+	/**
+	 * Stores a session. An existing session with the same id is replaced. If the store is full, the least recently used session is evicted.
+	 * @param session Session to store.
+	 */
+	public void put(LocalSession session) {
+		store(session);
+		replacedSessions.add(session.getId());
+		markModified(session);
+		if (repository != null && repository.isShared()) {
+			// The instance the session is started at handles its events, unless another instance still owns it.
+			claim(session.getId(), new Handler<Boolean>() {
+				
+				@Override
+				public void handle(Boolean isOwner) {
+				}
+			});
+		}
+	}
+	
+	private void store(LocalSession session) {
+		session.setChangeHandler(changeHandler);
+		entries.put(session.getId(), new Entry(session, System.currentTimeMillis()));
+		if (entries.size() > maxSessions) {
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			Map.Entry<String, Entry> eldest = iterator.next();
+			iterator.remove();
+			Metrics.countSessionEviction();
+			logger.debug("Evicted session " + eldest.getKey() + " as the maximum number of sessions has been reached.");
+		}
+	}
+	
+	/**
+	 * Removes a session. The session is removed from the repository as well.
+	 * @param sessionId ID of the session to remove.
+	 * @return Removed session or <code>null</code> if no session with the given id is stored locally.
+	 */
+	public LocalSession remove(String sessionId) {
+		Entry entry = entries.remove(sessionId);
+		if (repository != null) {
+			modifiedSessions.remove(sessionId);
+			replacedSessions.remove(sessionId);
+			if (savingSessions.contains(sessionId)) {
+				// Removing the snapshot now could be overtaken by the running write.
+				pendingRemovals.add(sessionId);
+			} else {
+				repository.remove(sessionId);
+			}
+		}
+		if (entry != null) {
+			entry.session.setChangeHandler(null);
+			return entry.session;
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the number of sessions currently stored.
+	 * @return Number of sessions, including expired ones which have not been removed yet.
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Stops the periodic removal of expired sessions. Pending snapshots are written to the repository and the repository is closed.
+	 */
+	public void close() {
+		vertx.cancelTimer(sweepTimerId);
+		if (flushTimerId != null) {
+			vertx.cancelTimer(flushTimerId);
+			flushTimerId = null;
+		}
+		if (retryTimerId != null) {
+			vertx.cancelTimer(retryTimerId);
+			retryTimerId = null;
+		}
+		if (repository != null) {
+			writeModifiedSessions();
+			repository.close();
+		}
+	}
+	
+	private void completeLoad(String sessionId, LocalSession session) {
+		List<Handler<LocalSession>> waitingHandlers = pendingLoads.remove(sessionId);
+		for (Handler<LocalSession> handler : waitingHandlers) {
+			handler.handle(session);
+		}
+	}
+	
+	private boolean hasLocalModifications(String sessionId) {
+		return modifiedSessions.containsKey(sessionId) || savingSessions.contains(sessionId);
+	}
+	
+	private void markModified(LocalSession session) {
+		if (repository == null) return;
+		modifiedSessions.put(session.getId(), session);
+		scheduleFlush();
+	}
+	
+	private void scheduleFlush() {
+		if (isFlushScheduled) return;
+		isFlushScheduled = true;
+		if (writeDelay > 0) {
+			// All modifications within the write delay are written at once, repeated modifications of a session cause a single write.
+			flushTimerId = vertx.setTimer(writeDelay, new Handler<Long>() {
+				
+				@Override
+				public void handle(Long timerId) {
+					flushTimerId = null;
+					isFlushScheduled = false;
+					writeModifiedSessions();
+				}
+			});
+		} else {
+			// All modifications of the current event loop iteration are written at once.
+			vertx.runOnContext(new Handler<Void>() {
+				
+				@Override
+				public void handle(Void event) {
+					isFlushScheduled = false;
+					writeModifiedSessions();
+				}
+			});
+		}
+	}
+	
+	private void scheduleRetry() {
+		if (retryTimerId != null) return;
+		retryTimerId = vertx.setTimer(SAVE_RETRY_DELAY, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				retryTimerId = null;
+				scheduleFlush();
+			}
+		});
+	}
+	
+	private void writeModifiedSessions() {
+		// The sessions are not looked up in the entries, which would change their access order.
+		Iterator<LocalSession> iterator = modifiedSessions.values().iterator();
+		while (iterator.hasNext()) {
+			LocalSession session = iterator.next();
+			if (savingSessions.contains(session.getId())) continue; // Written when the running write is complete.
+			iterator.remove();
+			save(session);
+		}
+	}
+	
+	private void save(final LocalSession session) {
+		final String sessionId = session.getId();
+		final long expectedVersion = replacedSessions.remove(sessionId) ? -1l : session.getVersion();
+		savingSessions.add(sessionId);
+		repository.save(sessionId, session.asJson(), expectedVersion, new AsyncResultHandler<Long>() {
+			
+			@Override
+			public void handle(AsyncResult<Long> saveRequest) {
+				savingSessions.remove(sessionId);
+				if (pendingRemovals.remove(sessionId)) {
+					repository.remove(sessionId);
+					return;
+				}
+				if (saveRequest.failed()) {
+					logger.warn("Failed to write snapshot of session " + sessionId + ", retrying.", saveRequest.cause());
+					if (expectedVersion < 0) replacedSessions.add(sessionId);
+					if (!modifiedSessions.containsKey(sessionId)) {
+						// Written again unless a newer modification is pending anyway.
+						modifiedSessions.put(sessionId, session);
+					}
+					scheduleRetry();
+					return;
+				} else if (saveRequest.result() == null) {
+					logger.warn("Session " + sessionId + " has been modified by another service instance, local modifications are discarded.");
+					LocalSession modifiedSession = modifiedSessions.get(sessionId);
+					if (modifiedSession == null || modifiedSession == session) {
+						// Unless the session has been replaced in the meantime, it is restored on its next access.
+						modifiedSessions.remove(sessionId);
+						Entry entry = entries.remove(sessionId);
+						if (entry != null) {
+							entry.session.setChangeHandler(null);
+						}
+					}
+				} else {
+					session.setVersion(saveRequest.result());
+				}
+				if (modifiedSessions.containsKey(sessionId)) {
+					scheduleFlush();
+				}
+			}
+		});
+	}
+	
+	private void removeExpiredSessions() {
+		long threshold = System.currentTimeMillis() - ttl;
+		Iterator<Entry> iterator = entries.values().iterator();
+		int removed = 0;
+		while (iterator.hasNext()) {
+			// Entries are ordered by access, hence we can stop at the first session still alive.
+			if (iterator.next().lastAccess >= threshold) break;
+			iterator.remove();
+			removed++;
+		}
+		if (removed > 0) {
+			Metrics.countSessionExpirations(removed);
+			logger.debug("Removed " + removed + " expired sessions.");
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package de.appsist.service.ps;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Assigns sessions to the verticle instances of the service.
+ * Each session is owned by exactly one instance, determined by the hash of the session id. Requests for a session are forwarded to the owning instance using the event bus.
+ * The status of instance specific components, e.g., circuit breakers, is collected from all instances using the event bus as well.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class ShardRouter {
+	public static final String ADDRESS_PREFIX = MainVerticle.SERVICE_ID + ":shard:";
+	public static final String STATUS_ADDRESS_PREFIX = MainVerticle.SERVICE_ID + ":shardStatus:";
+	
+	private final EventBus eventBus;
+	private final int shardIndex;
+	private final int shardCount;
+	private final long forwardTimeout;
+	
+	/**
+	 * Creates a router for a verticle instance.
+	 * @param eventBus Event bus to forward requests.
+	 * @param shardIndex Index of this instance, starting with 0.
+	 * @param shardCount Number of instances.
+	 * @param forwardTimeout Time in milliseconds to wait for the reply of another instance.
+	 */
+	public ShardRouter(EventBus eventBus, int shardIndex, int shardCount, long forwardTimeout) {
+		if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+			throw new IllegalArgumentException("Invalid shard " + shardIndex + " of " + shardCount + ".");
+		}
+		this.eventBus = eventBus;
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+		this.forwardTimeout = forwardTimeout;
+	}
+	
+	public int getShardIndex() {
+		return shardIndex;
+	}
+	
+	public int getShardCount() {
+		return shardCount;
+	}
+	
+	/**
+	 * Returns the index of the instance owning a session.
+	 * @param sessionId Session ID.
+	 * @return Index of the owning instance.
+	 */
+	public int getShard(String sessionId) {
+		return (sessionId.hashCode() & Integer.MAX_VALUE) % shardCount;
+	}
+	
+	/**
+	 * Checks if a session is owned by this instance.
+	 * @param sessionId Session ID. Requests without session are always handled locally.
+	 * @return <code>true</code> if this instance is responsible for the session, otherwise <code>false</code>.
+	 */
+	public boolean isLocal(String sessionId) {
+		return shardCount == 1 || sessionId == null || getShard(sessionId) == shardIndex;
+	}
+	
+	/**
+	 * Registers the handler for requests forwarded to this instance.
+	 * @param handler Handler for forwarded requests.
+	 */
+	public void registerHandler(Handler<Message<JsonObject>> handler) {
+		eventBus.registerLocalHandler(ADDRESS_PREFIX + shardIndex, handler);
+	}
+	
+	/**
+	 * Registers the handler for status requests of this instance.
+	 * @param handler Handler for status requests. Has to reply with the status of this instance.
+	 */
+	public void registerStatusHandler(Handler<Message<JsonObject>> handler) {
+		eventBus.registerLocalHandler(STATUS_ADDRESS_PREFIX + shardIndex, handler);
+	}
+	
+	/**
+	 * Requests a status from all instances, including this one.
+	 * @param request Status request.
+	 * @param resultHandler Handler for the result. Receives a JSON object with the status of each instance by its index. Instances which did not reply in time are reported with an <code>error</code> field.
+	 */
+	public void collectStatus(JsonObject request, final Handler<JsonObject> resultHandler) {
+		final JsonObject result = new JsonObject();
+		final int[] pendingReplies = { shardCount };
+		for (int i = 0; i < shardCount; i++) {
+			final String instance = String.valueOf(i);
+			eventBus.sendWithTimeout(STATUS_ADDRESS_PREFIX + i, request, forwardTimeout, new Handler<AsyncResult<Message<JsonObject>>>() {
+				
+				@Override
+				public void handle(AsyncResult<Message<JsonObject>> statusRequest) {
+					if (statusRequest.succeeded()) {
+						result.putObject(instance, statusRequest.result().body());
+					} else {
+						result.putObject(instance, new JsonObject().putString("error", statusRequest.cause().getMessage()));
+					}
+					if (--pendingReplies[0] == 0) {
+						resultHandler.handle(result);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Forwards a request to the instance owning the given session.
+	 * @param sessionId Session ID.
+	 * @param request Request to forward.
+	 * @param replyHandler Handler for the reply of the owning instance.
+	 */
+	public void forward(String sessionId, JsonObject request, Handler<AsyncResult<Message<JsonObject>>> replyHandler) {
+		eventBus.sendWithTimeout(ADDRESS_PREFIX + getShard(sessionId), request, forwardTimeout, replyHandler);
+	}
+}
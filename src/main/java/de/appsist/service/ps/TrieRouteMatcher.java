@@ -0,0 +1,182 @@
+package de.appsist.service.ps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServerRequest;
+
+/**
+ * Route matcher for exact paths with a base path prepended to all endpoints.
+ * The routes are stored in a trie of path segments, hence a request is matched in a single pass over its path. Segments starting with a colon, e.g., <code>/startSupport/:supportId</code>, match any value and add it as request parameter.
+ * Static segments take precedence over parameter segments. Regular expressions are not supported.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class TrieRouteMatcher implements Handler<HttpServerRequest> {
+	private static final String ALL_METHODS = "*";
+	
+	private final String basePath;
+	private final Node root;
+	private Handler<HttpServerRequest> noMatchHandler;
+	
+	private static class Node {
+		final Map<String, Node> children = new HashMap<>(); // <segment, node>
+		Node paramChild;
+		String paramName;
+		final Map<String, Handler<HttpServerRequest>> handlers = new HashMap<>(); // <method, handler>
+	}
+	
+	/**
+	 * Creates a route matcher with the given base path.
+	 * @param basePath Base path to prepend to all endpoints.
+	 */
+	public TrieRouteMatcher(String basePath) {
+		this.basePath = basePath;
+		this.root = new Node();
+	}
+	
+	/**
+	 * Return the base path for this route matcher.
+	 * @return Base path for all requests, e.g., "/services/myservices"
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+	
+	@Override
+	public void handle(HttpServerRequest request) {
+		List<String> params = new ArrayList<>(2);
+		Node node = match(root, request.path(), 1, params);
+		Handler<HttpServerRequest> handler = null;
+		if (node != null) {
+			handler = node.handlers.get(request.method());
+			if (handler == null) {
+				handler = node.handlers.get(ALL_METHODS);
+			}
+		}
+		if (handler == null) {
+			if (noMatchHandler != null) {
+				noMatchHandler.handle(request);
+			} else {
+				request.response().setStatusCode(404).end();
+			}
+			return;
+		}
+		for (int i = 0; i < params.size(); i += 2) {
+			request.params().add(params.get(i), params.get(i + 1));
+		}
+		handler.handle(request);
+	}
+	
+	public TrieRouteMatcher get(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("GET", pattern, handler);
+	}
+	
+	public TrieRouteMatcher put(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("PUT", pattern, handler);
+	}
+	
+	public TrieRouteMatcher post(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("POST", pattern, handler);
+	}
+	
+	public TrieRouteMatcher delete(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("DELETE", pattern, handler);
+	}
+	
+	public TrieRouteMatcher options(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("OPTIONS", pattern, handler);
+	}
+	
+	public TrieRouteMatcher head(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("HEAD", pattern, handler);
+	}
+	
+	public TrieRouteMatcher trace(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("TRACE", pattern, handler);
+	}
+	
+	public TrieRouteMatcher connect(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("CONNECT", pattern, handler);
+	}
+	
+	public TrieRouteMatcher patch(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute("PATCH", pattern, handler);
+	}
+	
+	public TrieRouteMatcher all(String pattern, Handler<HttpServerRequest> handler) {
+		return addRoute(ALL_METHODS, pattern, handler);
+	}
+	
+	/**
+	 * Sets the handler for requests not matching any route. If not set, a 404 is returned.
+	 * @param handler Handler for unmatched requests.
+	 * @return This route matcher.
+	 */
+	public TrieRouteMatcher noMatch(Handler<HttpServerRequest> handler) {
+		this.noMatchHandler = handler;
+		return this;
+	}
+	
+	private TrieRouteMatcher addRoute(String method, String pattern, Handler<HttpServerRequest> handler) {
+		String path = basePath + pattern;
+		if (!path.startsWith("/")) {
+			throw new IllegalArgumentException("Path has to start with a slash: " + path);
+		}
+		Node node = root;
+		for (String segment : path.substring(1).split("/", -1)) {
+			if (segment.startsWith(":")) {
+				String paramName = segment.substring(1);
+				if (node.paramChild == null) {
+					node.paramChild = new Node();
+					node.paramChild.paramName = paramName;
+				} else if (!node.paramChild.paramName.equals(paramName)) {
+					throw new IllegalArgumentException("Conflicting parameter names for route " + path + ": " + node.paramChild.paramName + ", " + paramName);
+				}
+				node = node.paramChild;
+			} else {
+				Node child = node.children.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.children.put(segment, child);
+				}
+				node = child;
+			}
+		}
+		node.handlers.put(method, handler);
+		return this;
+	}
+	
+	/**
+	 * Matches the path starting at the given position against the sub trie of a node.
+	 * @param node Node matching the part of the path before the given position.
+	 * @param path Request path.
+	 * @param start Start position of the next segment.
+	 * @param params List to add the names and values of matched parameter segments to, alternating.
+	 * @return Node matching the complete path or <code>null</code> if no route matches.
+	 */
+	private static Node match(Node node, String path, int start, List<String> params) {
+		if (start > path.length()) {
+			return node;
+		}
+		int end = path.indexOf('/', start);
+		if (end == -1) end = path.length();
+		String segment = path.substring(start, end);
+		Node child = node.children.get(segment);
+		if (child != null) {
+			Node result = match(child, path, end + 1, params);
+			if (result != null) return result;
+		}
+		if (node.paramChild != null && !segment.isEmpty()) {
+			params.add(node.paramChild.paramName);
+			params.add(segment);
+			Node result = match(node.paramChild, path, end + 1, params);
+			if (result != null) return result;
+			params.remove(params.size() - 1);
+			params.remove(params.size() - 1);
+		}
+		return null;
+	}
+}
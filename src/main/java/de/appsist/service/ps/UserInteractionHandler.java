@@ -3,14 +3,16 @@ package de.appsist.service.ps;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
@@ -45,6 +47,10 @@ import de.appsist.service.pki.model.ProcessDefinition;
 import de.appsist.service.pki.model.ProcessElementInstance;
 import de.appsist.service.pki.model.ProcessElementType;
 import de.appsist.service.pki.model.ProcessInstance;
+import de.appsist.service.ps.metrics.LatencyHistogram;
+import de.appsist.service.ps.metrics.Metrics;
+import de.appsist.service.ps.metrics.SlowTraceLog;
+import de.appsist.service.ps.metrics.StepTrace;
 
 /**
  * Handler for user client requests for both HTTP and event bus. 
@@ -53,16 +59,55 @@ import de.appsist.service.pki.model.ProcessInstance;
  */
 public class UserInteractionHandler {
 	private static final Logger logger = LoggerFactory.getLogger(UserInteractionHandler.class);
+	private static final long PENDING_TRACE_TIMEOUT = 10000l; // Time in milliseconds to wait for the task event following a navigation request.
 	
 	private final ConnectorRegistry connectors;
 	private final String baseUrl;
 	private final Map<String, Template> templates; // Map with handlebars templates for HTML responses.
-	private final Map<String, LocalSession> sessions; // <sessionId, Session>
+	private final SessionStore sessions;
+	private final ShardRouter shards;
+	private final Vertx vertx;
+	private final ContentLookupMode lookupMode;
+	private final long additionalContentTimeout;
+	private final Map<String, StepTrace> pendingTraces; // <sessionId, trace of a navigation request waiting for the task event>
+	private final FlowDecisionCache flowDecisions;
 	
-	public UserInteractionHandler(ConnectorRegistry connectors, String baseUrl) {
+	/**
+	 * Modes to retrieve the content of an assistance step.
+	 */
+	private enum ContentLookupMode {
+		/** Additional content is requested after the content of the step has been retrieved. */
+		SEQUENTIAL,
+		/** Content and additional content are requested at once. */
+		PARALLEL,
+		/** Content and additional content are requested at once, the step is displayed without waiting for the additional content. */
+		PROGRESSIVE
+	}
+	
+	public UserInteractionHandler(Vertx vertx, ConnectorRegistry connectors, SessionStore sessions, ShardRouter shards, String baseUrl, JsonObject assistanceConfig) {
+		this.vertx = vertx;
 		this.baseUrl = baseUrl;
 		this.connectors = connectors;
-		sessions = new HashMap<>();
+		this.sessions = sessions;
+		this.shards = shards;
+		String lookupModeName = assistanceConfig.getString("contentLookup", "sequential");
+		switch (lookupModeName) {
+		case "parallel":
+			lookupMode = ContentLookupMode.PARALLEL;
+			break;
+		case "progressive":
+			lookupMode = ContentLookupMode.PROGRESSIVE;
+			break;
+		default:
+			if (!"sequential".equals(lookupModeName)) {
+				logger.warn("Unknown content lookup mode [" + lookupModeName + "], using sequential lookup.");
+			}
+			lookupMode = ContentLookupMode.SEQUENTIAL;
+		}
+		additionalContentTimeout = assistanceConfig.getLong("additionalContentTimeout", 2000);
+		pendingTraces = new HashMap<>();
+		flowDecisions = new FlowDecisionCache();
+		SlowTraceLog.setCapacity(assistanceConfig.getInteger("slowestTraces", 20));
 		templates = new HashMap<>();
 		
 		try {
@@ -81,8 +126,8 @@ public class UserInteractionHandler {
 		registerPkiEvents();
 	}
 	
-	public LocalSession getLocalSession(String sessionId) {
-		return sessions.get(sessionId);
+	public void getLocalSession(String sessionId, Handler<LocalSession> handler) {
+		sessions.get(sessionId, handler);
 	}
 	
 	private void registerPkiEvents() {
@@ -91,70 +136,40 @@ public class UserInteractionHandler {
 			@Override
 			public void handle(final TaskEvent event) {
 				if (event.getModelId().equals(ServiceTaskEvent.MODEL_ID)) return; 
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					// We have no local session for this task. Aborting
-					return;
-				}
-				final String processId = event.getProcessId();
-				final String processInstanceId = event.getProcessInstanceId();
-				final String rootProcessId = event.getRootProcessId(); 
-				final ProcessElementInstance currentElement = connectors.pkiConnector().getCachedProcessElementInstance(processInstanceId, event.getElementId());
-				
-				session.setActiveElement(currentElement);
-				double progress = event.getProgress();
-				session.setProgress(progress);
-				// SessionHistory sessionHistory = sessionHistories.get(sessionId);
-				// sessionHistory.addStep(processInstanceId, processId, currentElement.getId(), currentElement.getType());
-				retrieveAndUpdateContentForTask(
-					session,
-					currentElement,
-					processId,
-					processInstanceId,
-					rootProcessId,
-					progress
-				);
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				final StepTrace trace = continueTrace("task", event.getSessionId());
+				trace.recordEvent(Metrics.pkiEvent("task"));
+				final StepTrace.Span sessionSpan = trace.startSpan("loadSession");
+				sessions.getOwned(event.getSessionId(), new Handler<LocalSession>() {
+					
+					@Override
+					public void handle(LocalSession session) {
+						sessionSpan.end(session != null);
+						if (session == null) {
+							// We have no local session for this task. Aborting
+							return;
+						}
+						handleTaskEvent(session, event, trace);
+					}
+				});
 			}
 		});
 		
 		connectors.pkiConnector().registerProcessUserRequestHandler(new Handler<ProcessUserRequestEvent>() {
 			@Override
 			public void handle(final ProcessUserRequestEvent event) {
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					// We have no local session for this task. Aborting
-					return;
-				}
-				ProcessElementInstance currentElement = session.getActiveElement();
-				final AssistanceStepBuilder builder = new AssistanceStepBuilder();
-				builder.setTitle(currentElement.getLabel());
-				// session.getProcessDefinition().getString("label");
-				Double progress = session.getProgress();
-				builder.setProgress(progress != null ? progress : 0.0d);
-				builder.setInfo(event.getMessage());
-				builder.setContentBody(new ContentBody.Empty());
-				
-				int i = 0;
-				for (Entry<String, String> entry : event.getOptions().entrySet()) {
-					String display = entry.getValue();
-					Action action = new HttpPostAction(baseUrl + "/navigate/next?elementId=" + entry.getKey(), new JsonObject());
-					builder.addActionButtonWithText("select-" + i++, display, action);
-				}
-			
-				try {
-					AssistanceStep assistanceStep = builder.build();
-					connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
-						
-						@Override
-						public void handle(AsyncResult<Void> event) {
-							if (event.failed()) {
-								logger.warn("Failed to propagte user request event.", event.cause());
-							}
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				sessions.getOwned(event.getSessionId(), Metrics.timedEvent("processUserRequest", new Handler<LocalSession>() {
+					
+					@Override
+					public void handle(LocalSession session) {
+						if (session == null) {
+							// We have no local session for this task. Aborting
+							return;
 						}
-					});
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to propagte user request event.", e);
-				}
+						handleProcessUserRequestEvent(session, event);
+					}
+				}));
 			}
 		});
 		
@@ -162,115 +177,27 @@ public class UserInteractionHandler {
 			
 			@Override
 			public void handle(ProcessAutomatedFlowEvent event) {
-				final String processInstanceId = event.getProcessInstanceId();
-				final String sessionId = event.getSessionId();
-				final Condition condition = event.getCondition();
-				final String defaultElement = event.getDefault();
-
-				connectors.pkiConnector().getProcessInstance(processInstanceId, new AsyncResultHandler<ProcessInstance>() {
-					
-					@Override
-					public void handle(AsyncResult<ProcessInstance> instanceRequest) {
-						if (instanceRequest.succeeded()) {
-							final ProcessInstance processInstance = instanceRequest.result();
-							connectors.iidConnector().getUserActivity(sessionId, new AsyncResultHandler<Activity>() {
-
-								@Override
-								public void handle(AsyncResult<Activity> activityRequest) {
-									if (activityRequest.succeeded()) {
-										Activity activity = activityRequest.result();
-										if (activity == Activity.SIDE && defaultElement != null) {
-											logger.debug("Selected default flow as user is in side activity: " + defaultElement);
-											connectors.pkiConnector().next(processInstanceId, sessionId, defaultElement, new AsyncResultHandler<ProcessElementInstance>() {
-												
-												@Override
-												public void handle(AsyncResult<ProcessElementInstance> result) {
-													if (!result.succeeded()) {
-														logger.warn("Failed to continue process with automated flow.", result.cause());
-													}
-												}
-											});
-										} else {
-											logger.debug("Context to decide automated flow: " + processInstance.getContext().encodePrettily());
-											String nextElementId = condition.getElementForContext(processInstance.getContext().toMap());
-											connectors.pkiConnector().next(processInstanceId, sessionId, nextElementId, new AsyncResultHandler<ProcessElementInstance>() {
-												
-												@Override
-												public void handle(AsyncResult<ProcessElementInstance> result) {
-													if (!result.succeeded()) {
-														logger.warn("Failed to continue process with automated flow.", result.cause());
-													}
-												}
-											});
-										}
-									} else {
-										logger.warn("Failed to retrieve user activity to perform automated flow.", activityRequest.cause());
-									}
-								}
-							});
-						} else {
-							logger.warn("Failed to retrieve process instance to perform automated flow.", instanceRequest.cause());
-						}
-					}
-				});				
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				new AutomatedFlow(event).start();
 			}
 		});
 		
 		connectors.pkiConnector().registerCallActivityHandler(new Handler<CallActivityEvent>() {
 			@Override
 			public void handle(final CallActivityEvent event) {
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					return;
-				}
-				// final String rootProcessId = event.get/RootProcessId();
-				final String processInstanceId = event.getProcessInstanceId();
-				final String processId = event.getProcessId();
-				final String activityProcessId = event.getActivityProcessId();
-				connectors.bmdConnector().isExperienced(session.getId(), event.getActivityProcessId(), session.getUserId(), session.getToken(), new AsyncResultHandler<Boolean>() {
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				final StepTrace trace = continueTrace("callActivity", event.getSessionId());
+				trace.recordEvent(Metrics.pkiEvent("callActivity"));
+				final StepTrace.Span sessionSpan = trace.startSpan("loadSession");
+				sessions.getOwned(event.getSessionId(), new Handler<LocalSession>() {
+					
 					@Override
-					public void handle(AsyncResult<Boolean> bmdRequest) {
-						boolean isExperienced; 
-						if (bmdRequest.succeeded()) {
-							isExperienced = bmdRequest.result();
-						} else {
-							logger.warn(bmdRequest.cause().getMessage());
-							isExperienced = false;
-						}
-						if (isExperienced) {
-							ProcessElementInstance currentElement = connectors.pkiConnector().getCachedProcessElementInstance(event.getProcessInstanceId(), event.getElementId());
-							session.setActiveElement(currentElement);
-							double progress = event.getProgress();
-							session.setProgress(progress);
-							retrieveAndUpdateContentForActivity(session, currentElement, processId, processInstanceId, activityProcessId, event.getRootProcessId(), progress);
-						} else {
-							connectors.pkiConnector().confirm(event.getProcessInstanceId(), session.getId(), new AsyncResultHandler<ProcessInstance>() {
-								
-								@Override
-								public void handle(AsyncResult<ProcessInstance> confirmRequest) {
-									if (confirmRequest.succeeded()) {
-										final ProcessInstance processInstance = confirmRequest.result();
-										session.setActiveProcessInstance(processInstance);
-										connectors.pkiConnector().getCurrentElement(processInstance.getId(), session.getId(), new AsyncResultHandler<ProcessElementInstance>() {
-											@Override
-											public void handle(AsyncResult<ProcessElementInstance> result) {
-												if (result.succeeded()) {
-													final ProcessElementInstance currentElement = result.result();
-													session.setActiveElement(currentElement);
-													double progress = event.getProgress();
-													session.setProgress(progress);
-													// retrieveAndUpdateContentForTask(session, currentElement, event.getActivityProcessId(), processInstance.getId(), rootProcessId, progress);
-												} else {
-													sendGenericErrorPage(session.getId(), (HttpException) result.cause());
-												}
-											}
-										});
-									} else {
-										sendGenericErrorPage(session.getId(), (HttpException) confirmRequest.cause());
-									}
-								}
-							});
+					public void handle(LocalSession session) {
+						sessionSpan.end(session != null);
+						if (session == null) {
+							return;
 						}
+						handleCallActivityEvent(session, event, trace);
 					}
 				});
 			}
@@ -279,198 +206,382 @@ public class UserInteractionHandler {
 		connectors.pkiConnector().registerProcessCompleteHandler(new Handler<ProcessCompleteEvent>() {
 			@Override
 			public void handle(final ProcessCompleteEvent event) {
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					return;
-				}
-				ProcessInstance localProcessInstance = session.getActiveProcessInstance();
-				if (localProcessInstance == null || !event.getProcessInstanceId().equals(localProcessInstance.getId())) {
-					return;
-				}
-				final String parentInstanceId = event.getParentInstance();
-				if (parentInstanceId != null) {
-					// We are continue in the parent process.
-					ProcessInstance processInstance = connectors.pkiConnector().getCachedProcessInstance(parentInstanceId);
-					session.setActiveProcessInstance(processInstance);
-					connectors.pkiConnector().next(parentInstanceId, session.getId(), null, new AsyncResultHandler<ProcessElementInstance>() {
-						
-						@Override
-						public void handle(AsyncResult<ProcessElementInstance> nextRequest) {
-							if (nextRequest.failed()) {
-								logger.warn("Failed to continue parent process.", nextRequest.cause());
-							}
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				pendingTraces.remove(event.getSessionId());
+				sessions.getOwned(event.getSessionId(), Metrics.timedEvent("processComplete", new Handler<LocalSession>() {
+					
+					@Override
+					public void handle(LocalSession session) {
+						if (session == null) {
+							return;
 						}
-					});
-				} else {
-					// Top level process. Bring it to an end.
-					ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(localProcessInstance.getProcessId());
-					String title = processDefinition.getLabel();
-					try {
-						AssistanceStepBuilder builder = new AssistanceStepBuilder();
-						builder.setTitle(title);
-						builder.setProgress(1.0d);
-						// builder.setInfo("Assistenz erfolgreich abgeschlossen.");
-						// builder.setContentBody(new ContentBody.Empty());
-						String path = new StringBuilder()
-							.append("/services/ufs/feedbackForm?sid=").append(event.getSessionId())
-							.append("&uid=").append(event.getUserId())
-							.append("&pid=").append(event.getProcessId())
-							.toString();
-						
-						builder.setContentBody(new ContentBody.Frame(path));
-						// TODO Use content package instead of info text. 
-						JsonObject messageBody = new JsonObject();
-						messageBody.putString("action", "endDisplay");
-						messageBody.putString("sessionId", session.getId());
-						messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
-						Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
-						builder.setCloseAction(closeAction);
-						builder.addActionButtonWithText("close", "Schließen", closeAction);
-						AssistanceStep assistanceStep = builder.build();
-						connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
-							
-							@Override
-							public void handle(AsyncResult<Void> event) {
-								if (event.failed()) {
-									logger.warn("Failed to propagate process completion.", event.cause());
-								}
-							}
-						});
-						sessions.remove(session.getId());
-					} catch (IllegalArgumentException e) {
-						logger.warn("Failed to propagate process completion.", e);
+						handleProcessCompleteEvent(session, event);
 					}
-				}
+				}));
 			}
 		});
 		
 		connectors.pkiConnector().registerProcessErrorHandler(new Handler<ProcessErrorEvent>() {
 			@Override
 			public void handle(final ProcessErrorEvent event) {
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					return;
-				}
-				ProcessInstance processInstance = session.getActiveProcessInstance();
-				if (processInstance == null || !event.getProcessInstanceId().equals(processInstance.getId())) {
-					return;
-				}
-				ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(processInstance.getProcessId()); 
-				String title = processDefinition.getLabel();
-				try {
-					processDefinition.asJson().putString("errorMessage", event.getErrorMessage());
-					processDefinition.asJson().putNumber("errorCode", event.getErrorCode());
-					AssistanceStepBuilder builder = new AssistanceStepBuilder();
-					builder.setTitle(title);
-					builder.setProgress(1.0d);
-					builder.setInfo("Es ist ein Fehler aufgetreten: " + event.getErrorMessage());
-					builder.setContentBody(new ContentBody.Empty());
-					JsonObject messageBody = new JsonObject();
-					messageBody.putString("action", "endDisplay");
-					messageBody.putString("sessionId", session.getId());
-					messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
-					Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
-					builder.setCloseAction(closeAction);
-					// TODO Replace with real contact request.
-					Action contactAction = new SendMessageAction("appsist:service:ccs", new JsonObject());
-					builder.addActionButtonWithText("close", "Techniker kontaktieren", contactAction);
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				pendingTraces.remove(event.getSessionId());
+				sessions.getOwned(event.getSessionId(), Metrics.timedEvent("processError", new Handler<LocalSession>() {
 					
-					AssistanceStep assistanceStep = builder.build();
-					connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
-						
-						@Override
-						public void handle(AsyncResult<Void> event) {
-							if (event.failed()) {
-								logger.warn("Failed to propagate process error state.", event.cause());
-							}
+					@Override
+					public void handle(LocalSession session) {
+						if (session == null) {
+							return;
 						}
-					});
-					sessions.remove(session.getId());
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to propagate process error state.", e);
-				}
+						handleProcessErrorEvent(session, event);
+					}
+				}));
 			}
 		});
 		
 		connectors.pkiConnector().registerProcessTerminateHandler(new Handler<ProcessTerminateEvent>() {
 			@Override
 			public void handle(final ProcessTerminateEvent event) {
-				final LocalSession session = sessions.get(event.getSessionId());
-				if (session == null) {
-					return;
+				if (!shards.isLocal(event.getSessionId())) return; // Session is owned by another verticle instance.
+				pendingTraces.remove(event.getSessionId());
+				sessions.getOwned(event.getSessionId(), Metrics.timedEvent("processTerminate", new Handler<LocalSession>() {
+					
+					@Override
+					public void handle(LocalSession session) {
+						if (session == null) {
+							return;
+						}
+						handleProcessTerminateEvent(session, event);
+					}
+				}));
+			}
+		});
+	}
+	
+	private void handleTaskEvent(final LocalSession session, final TaskEvent event, StepTrace trace) {
+		final String processId = event.getProcessId();
+		final String processInstanceId = event.getProcessInstanceId();
+		final String rootProcessId = event.getRootProcessId(); 
+		final ProcessElementInstance currentElement = connectors.pkiConnector().getCachedProcessElementInstance(processInstanceId, event.getElementId());
+		final long generation = session.startRender();
+		
+		session.setActiveElement(currentElement);
+		double progress = event.getProgress();
+		session.setProgress(progress);
+		// SessionHistory sessionHistory = sessionHistories.get(sessionId);
+		// sessionHistory.addStep(processInstanceId, processId, currentElement.getId(), currentElement.getType());
+		retrieveAndUpdateContentForTask(
+			session,
+			currentElement,
+			processId,
+			processInstanceId,
+			rootProcessId,
+			progress,
+			generation,
+			trace
+		);
+	}
+	
+	private void handleProcessUserRequestEvent(final LocalSession session, final ProcessUserRequestEvent event) {
+		ProcessElementInstance currentElement = session.getActiveElement();
+		final AssistanceStepBuilder builder = new AssistanceStepBuilder();
+		builder.setTitle(currentElement.getLabel());
+		// session.getProcessDefinition().getString("label");
+		Double progress = session.getProgress();
+		builder.setProgress(progress != null ? progress : 0.0d);
+		builder.setInfo(event.getMessage());
+		builder.setContentBody(new ContentBody.Empty());
+		
+		int i = 0;
+		for (Entry<String, String> entry : event.getOptions().entrySet()) {
+			String display = entry.getValue();
+			Action action = new HttpPostAction(baseUrl + "/navigate/next?elementId=" + entry.getKey(), new JsonObject());
+			builder.addActionButtonWithText("select-" + i++, display, action);
+		}
+		
+		try {
+			AssistanceStep assistanceStep = builder.build();
+			connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (event.failed()) {
+						logger.warn("Failed to propagte user request event.", event.cause());
+					}
 				}
-				ProcessInstance processInstance = session.getActiveProcessInstance();
-				if (processInstance == null || !event.getProcessInstanceId().equals(processInstance.getId())) {
+			}));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Failed to propagte user request event.", e);
+		}
+	}
+	
+	private void handleCallActivityEvent(final LocalSession session, final CallActivityEvent event, final StepTrace trace) {
+		// final String rootProcessId = event.get/RootProcessId();
+		final String processInstanceId = event.getProcessInstanceId();
+		final String processId = event.getProcessId();
+		final String activityProcessId = event.getActivityProcessId();
+		// The step is started when the event is received, a later event of the session supersedes it even if its lookups complete earlier.
+		final long generation = session.startRender();
+		final StepTrace.Span experienceSpan = trace.startSpan("isExperienced");
+		connectors.bmdConnector().isExperienced(session.getId(), event.getActivityProcessId(), session.getUserId(), session.getToken(), new AsyncResultHandler<Boolean>() {
+			@Override
+			public void handle(AsyncResult<Boolean> bmdRequest) {
+				experienceSpan.end(bmdRequest.succeeded());
+				if (!session.isCurrentRender(generation)) {
+					skipObsoleteStep(session, null);
 					return;
 				}
-				ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(processInstance.getProcessId()); 
-				String title = processDefinition.getLabel();
-				try {
-					AssistanceStepBuilder builder = new AssistanceStepBuilder();
-					builder.setTitle(title);
-					builder.setProgress(1.0d);
-					builder.setInfo("Es steht keine weitere Assistenz für diesen Prozess zur Verfügung.");
-					builder.setContentBody(new ContentBody.Empty());
-					// TODO Replace with content package.
-					JsonObject messageBody = new JsonObject();
-					messageBody.putString("action", "endDisplay");
-					messageBody.putString("sessionId", session.getId());
-					messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
-					Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
-					builder.setCloseAction(closeAction);
-					
-					AssistanceStep assistanceStep = builder.build();
-					connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
+				boolean isExperienced; 
+				if (bmdRequest.succeeded()) {
+					isExperienced = bmdRequest.result();
+				} else {
+					logger.warn(bmdRequest.cause().getMessage());
+					isExperienced = false;
+				}
+				if (isExperienced) {
+					ProcessElementInstance currentElement = connectors.pkiConnector().getCachedProcessElementInstance(event.getProcessInstanceId(), event.getElementId());
+					session.setActiveElement(currentElement);
+					double progress = event.getProgress();
+					session.setProgress(progress);
+					retrieveAndUpdateContentForActivity(session, currentElement, processId, processInstanceId, activityProcessId, event.getRootProcessId(), progress, generation, trace);
+				} else {
+					connectors.pkiConnector().confirm(event.getProcessInstanceId(), session.getId(), Metrics.timed("pki", "confirm", new AsyncResultHandler<ProcessInstance>() {
 						
 						@Override
-						public void handle(AsyncResult<Void> event) {
-							if (event.failed()) {
-								logger.warn("Failed to propagate process termination.", event.cause());
+						public void handle(AsyncResult<ProcessInstance> confirmRequest) {
+							if (confirmRequest.succeeded()) {
+								final ProcessInstance processInstance = confirmRequest.result();
+								session.setActiveProcessInstance(processInstance);
+								connectors.pkiConnector().getCurrentElement(processInstance.getId(), session.getId(), Metrics.timed("pki", "getCurrentElement", new AsyncResultHandler<ProcessElementInstance>() {
+									@Override
+									public void handle(AsyncResult<ProcessElementInstance> result) {
+										if (result.succeeded()) {
+											final ProcessElementInstance currentElement = result.result();
+											session.setActiveElement(currentElement);
+											double progress = event.getProgress();
+											session.setProgress(progress);
+											// retrieveAndUpdateContentForTask(session, currentElement, event.getActivityProcessId(), processInstance.getId(), rootProcessId, progress);
+										} else {
+											sendGenericErrorPage(session.getId(), (HttpException) result.cause());
+										}
+									}
+								}));
+							} else {
+								sendGenericErrorPage(session.getId(), (HttpException) confirmRequest.cause());
 							}
 						}
-					});
-					sessions.remove(session.getId());
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to propagate process error state.", e);
+					}));
 				}
 			}
 		});
 	}
 	
-	private List<String> getProcessTitles(String processInstanceId) {
-		List<String> processTitles = new ArrayList<>();
+	private void handleProcessCompleteEvent(final LocalSession session, final ProcessCompleteEvent event) {
+		// Completing a process may change the experience of the user in this process.
+		connectors.bmdConnector().invalidateMastery(session.getUserId(), event.getProcessId());
+		session.removeProcessTitles(event.getProcessInstanceId());
+		ProcessInstance localProcessInstance = session.getActiveProcessInstance();
+		if (localProcessInstance == null || !event.getProcessInstanceId().equals(localProcessInstance.getId())) {
+			return;
+		}
+		final String parentInstanceId = event.getParentInstance();
+		if (parentInstanceId != null) {
+			// We are continue in the parent process.
+			ProcessInstance processInstance = connectors.pkiConnector().getCachedProcessInstance(parentInstanceId);
+			session.setActiveProcessInstance(processInstance);
+			connectors.pkiConnector().next(parentInstanceId, session.getId(), null, Metrics.timed("pki", "next", new AsyncResultHandler<ProcessElementInstance>() {
+				
+				@Override
+				public void handle(AsyncResult<ProcessElementInstance> nextRequest) {
+					if (nextRequest.failed()) {
+						logger.warn("Failed to continue parent process.", nextRequest.cause());
+					}
+				}
+			}));
+		} else {
+			// Top level process. Bring it to an end.
+			ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(localProcessInstance.getProcessId());
+			String title = processDefinition.getLabel();
+			try {
+				AssistanceStepBuilder builder = new AssistanceStepBuilder();
+				builder.setTitle(title);
+				builder.setProgress(1.0d);
+				// builder.setInfo("Assistenz erfolgreich abgeschlossen.");
+				// builder.setContentBody(new ContentBody.Empty());
+				String path = new StringBuilder()
+					.append("/services/ufs/feedbackForm?sid=").append(event.getSessionId())
+					.append("&uid=").append(event.getUserId())
+					.append("&pid=").append(event.getProcessId())
+					.toString();
+				
+				builder.setContentBody(new ContentBody.Frame(path));
+				// TODO Use content package instead of info text. 
+				JsonObject messageBody = new JsonObject();
+				messageBody.putString("action", "endDisplay");
+				messageBody.putString("sessionId", session.getId());
+				messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
+				Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
+				builder.setCloseAction(closeAction);
+				builder.addActionButtonWithText("close", "Schließen", closeAction);
+				AssistanceStep assistanceStep = builder.build();
+				connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
+					
+					@Override
+					public void handle(AsyncResult<Void> event) {
+						if (event.failed()) {
+							logger.warn("Failed to propagate process completion.", event.cause());
+						}
+					}
+				}));
+				closeSession(session.getId());
+			} catch (IllegalArgumentException e) {
+				logger.warn("Failed to propagate process completion.", e);
+			}
+		}
+	}
+	
+	private void handleProcessErrorEvent(final LocalSession session, final ProcessErrorEvent event) {
+		ProcessInstance processInstance = session.getActiveProcessInstance();
+		if (processInstance == null || !event.getProcessInstanceId().equals(processInstance.getId())) {
+			return;
+		}
+		ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(processInstance.getProcessId()); 
+		String title = processDefinition.getLabel();
+		try {
+			processDefinition.asJson().putString("errorMessage", event.getErrorMessage());
+			processDefinition.asJson().putNumber("errorCode", event.getErrorCode());
+			AssistanceStepBuilder builder = new AssistanceStepBuilder();
+			builder.setTitle(title);
+			builder.setProgress(1.0d);
+			builder.setInfo("Es ist ein Fehler aufgetreten: " + event.getErrorMessage());
+			builder.setContentBody(new ContentBody.Empty());
+			JsonObject messageBody = new JsonObject();
+			messageBody.putString("action", "endDisplay");
+			messageBody.putString("sessionId", session.getId());
+			messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
+			Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
+			builder.setCloseAction(closeAction);
+			// TODO Replace with real contact request.
+			Action contactAction = new SendMessageAction("appsist:service:ccs", new JsonObject());
+			builder.addActionButtonWithText("close", "Techniker kontaktieren", contactAction);
+			
+			AssistanceStep assistanceStep = builder.build();
+			connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (event.failed()) {
+						logger.warn("Failed to propagate process error state.", event.cause());
+					}
+				}
+			}));
+			closeSession(session.getId());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Failed to propagate process error state.", e);
+		}
+	}
+	
+	private void handleProcessTerminateEvent(final LocalSession session, final ProcessTerminateEvent event) {
+		ProcessInstance processInstance = session.getActiveProcessInstance();
+		if (processInstance == null || !event.getProcessInstanceId().equals(processInstance.getId())) {
+			return;
+		}
+		ProcessDefinition processDefinition = connectors.pkiConnector().getCachedProcessDefinition(processInstance.getProcessId()); 
+		String title = processDefinition.getLabel();
+		try {
+			AssistanceStepBuilder builder = new AssistanceStepBuilder();
+			builder.setTitle(title);
+			builder.setProgress(1.0d);
+			builder.setInfo("Es steht keine weitere Assistenz für diesen Prozess zur Verfügung.");
+			builder.setContentBody(new ContentBody.Empty());
+			// TODO Replace with content package.
+			JsonObject messageBody = new JsonObject();
+			messageBody.putString("action", "endDisplay");
+			messageBody.putString("sessionId", session.getId());
+			messageBody.putString("serviceId", MainVerticle.SERVICE_ID);
+			Action closeAction = new SendMessageAction(IIDConnector.DEFAULT_ADDRESS, messageBody);
+			builder.setCloseAction(closeAction);
+			
+			AssistanceStep assistanceStep = builder.build();
+			connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (event.failed()) {
+						logger.warn("Failed to propagate process termination.", event.cause());
+					}
+				}
+			}));
+			closeSession(session.getId());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Failed to propagate process error state.", e);
+		}
+	}
+	
+	/**
+	 * Returns the titles of a process instance and the instances it has been called from.
+	 * The titles are cached in the session until the instance is completed or activated again. They are not cached while a definition is unknown.
+	 * @param session Session the process instance belongs to.
+	 * @param processInstanceId ID of the process instance.
+	 * @return List of process titles, the root process first.
+	 */
+	private List<String> getProcessTitles(LocalSession session, String processInstanceId) {
+		List<String> processTitles = session.getProcessTitles(processInstanceId);
+		if (processTitles != null) {
+			return processTitles;
+		}
+		processTitles = new ArrayList<>();
+		boolean isComplete = true;
 		Map<ProcessInstance, ProcessDefinition> processMap = connectors.pkiConnector().getProcessTree(processInstanceId);
 		for (ProcessDefinition processDefinition : processMap.values()) {
-			processTitles.add(processDefinition != null ? processDefinition.getLabel() : "[Unbekannter Prozess]");
+			if (processDefinition != null) {
+				processTitles.add(processDefinition.getLabel());
+			} else {
+				processTitles.add("[Unbekannter Prozess]");
+				isComplete = false;
+			}
+		}
+		if (isComplete) {
+			session.setProcessTitles(processInstanceId, processTitles);
 		}
 		return processTitles;
 	}
 	
-	private void retrieveAndUpdateContentForTask(final LocalSession session, final ProcessElementInstance currentElement, final String processId, final String processInstanceId, final String rootProcessId, final double progress) {
+	private void retrieveAndUpdateContentForTask(final LocalSession session, final ProcessElementInstance currentElement, final String processId, final String processInstanceId, final String rootProcessId, final double progress, final long generation, final StepTrace trace) {
 		final String elementId = currentElement.getId();
 		final String stepId = processId + "/" + elementId;
+		trace.setElement(processId, elementId);
+		final AdditionalContentLookup additionalContent = lookupMode != ContentLookupMode.SEQUENTIAL ? new AdditionalContentLookup(session, rootProcessId, processId, elementId, trace) : null;
+		final StepTrace.Span contentSpan = trace.startSpan("getContentForTask");
 		connectors.isConnector().getContentForTask(session.getUserId(), rootProcessId, processId, elementId, new AsyncResultHandler<JsonObject>() {
 			@Override
 			public void handle(AsyncResult<JsonObject> result) {
+				contentSpan.end(result.succeeded());
+				if (!session.isCurrentRender(generation)) {
+					skipObsoleteStep(session, additionalContent);
+					return;
+				}
 				if (result.succeeded()) {
 					String retrievedContentId = result.result().getString("contentId");
 					if (retrievedContentId != null) {
 						session.setContentForStep(stepId, retrievedContentId);
 						logger.debug("Displaying content " + retrievedContentId + " for " + stepId + ".");
-						buildAndSendContent(session, retrievedContentId, currentElement, processInstanceId, processId, null, rootProcessId, progress);
+						buildAndSendContent(session, retrievedContentId, currentElement, processInstanceId, processId, null, rootProcessId, progress, additionalContent, generation, trace);
 					} else {
 						String cachedContentId = session.getCachedContent(stepId);
 						if (cachedContentId != null) {
 							logger.debug("Displaying content " + cachedContentId + " for " + stepId + ".");
-							buildAndSendContent(session, cachedContentId, currentElement, processInstanceId, processId, null, rootProcessId, progress);
+							buildAndSendContent(session, cachedContentId, currentElement, processInstanceId, processId, null, rootProcessId, progress, additionalContent, generation, trace);
 						} else {
 							logger.warn("No content id retrieved found for " + stepId + "!");
-							buildAndSendContent(session, null, currentElement, processInstanceId, processId, null, rootProcessId, progress);
+							buildAndSendContent(session, null, currentElement, processInstanceId, processId, null, rootProcessId, progress, additionalContent, generation, trace);
 						}
 					}
 				} else {
+					if (additionalContent != null) additionalContent.cancel();
 					HttpException exception = (HttpException) result.cause();
 					sendGenericErrorPage(session.getId(), exception);
+					trace.finish(false);
 				}
 			}
 		});
@@ -485,30 +596,57 @@ public class UserInteractionHandler {
 	 * @param activityProcessId ID of the called process.
 	 * @param rootProcessId ID of the root process.
 	 * @param progress Progress to display.
+	 * @param generation Generation of the step as returned by {@link LocalSession#startRender()} when the event has been received.
+	 * @param trace Trace of the step.
 	 */
-	private void retrieveAndUpdateContentForActivity(final LocalSession session, final ProcessElementInstance currentElement, final String processId, final String processInstanceId, final String activityProcessId, final String rootProcessId, final double progress) {
+	private void retrieveAndUpdateContentForActivity(final LocalSession session, final ProcessElementInstance currentElement, final String processId, final String processInstanceId, final String activityProcessId, final String rootProcessId, final double progress, final long generation, final StepTrace trace) {
+		trace.setElement(processId, currentElement.getId());
+		final AdditionalContentLookup additionalContent = lookupMode != ContentLookupMode.SEQUENTIAL ? new AdditionalContentLookup(session, rootProcessId, processId, currentElement.getId(), trace) : null;
+		final StepTrace.Span contentSpan = trace.startSpan("getContentForCallActivity");
 		connectors.isConnector().getContentForCallActivity(session.getUserId(), rootProcessId, processId, activityProcessId, new AsyncResultHandler<JsonObject>() {
 			@Override
 			public void handle(AsyncResult<JsonObject> result) {
+				contentSpan.end(result.succeeded());
+				if (!session.isCurrentRender(generation)) {
+					skipObsoleteStep(session, additionalContent);
+					return;
+				}
 				if (result.succeeded()) {
 					String contentId = result.result().getString("contentId") != null ? result.result().getString("contentId") : "404";
 					if (contentId.equals("404")) {
-						buildAndSendContent(session, null, currentElement, processInstanceId, processId, activityProcessId, rootProcessId, progress);
+						buildAndSendContent(session, null, currentElement, processInstanceId, processId, activityProcessId, rootProcessId, progress, additionalContent, generation, trace);
 					} else {
-						buildAndSendContent(session, contentId, currentElement, processInstanceId, processId, activityProcessId, rootProcessId, progress);
+						buildAndSendContent(session, contentId, currentElement, processInstanceId, processId, activityProcessId, rootProcessId, progress, additionalContent, generation, trace);
 					}
 				} else {
+					if (additionalContent != null) additionalContent.cancel();
 					HttpException exception = (HttpException) result.cause();
 					sendGenericErrorPage(session.getId(), exception);
+					trace.finish(false);
 				}
 			}
 		});
 	}
 	
-	private void buildAndSendContent(final LocalSession session, final String contentId, final ProcessElementInstance currentElement, final String processInstanceId, final String processId, String activityProcessId, final String rootProcessId, final double progress) {
+	/**
+	 * Builds the assistance step for the given element and displays it as soon as the lookup of additional content is complete.
+	 * @param session Local session.
+	 * @param contentId ID of the content to display. May be <code>null</code>.
+	 * @param currentElement Element to display.
+	 * @param processInstanceId ID of the process instance the element belongs to.
+	 * @param processId ID of the process the element belongs to.
+	 * @param activityProcessId ID of the called process if the element is a call activity, otherwise <code>null</code>.
+	 * @param rootProcessId ID of the root process.
+	 * @param progress Progress to display.
+	 * @param additionalContent Lookup of additional content already started for the element. If <code>null</code>, the lookup is started now.
+	 * @param generation Generation of the step as returned by {@link LocalSession#startRender()}. The step is skipped if a newer one has been started in the meantime.
+	 * @param trace Trace of the step. It is finished when the step has been displayed.
+	 */
+	private void buildAndSendContent(final LocalSession session, final String contentId, final ProcessElementInstance currentElement, final String processInstanceId, final String processId, String activityProcessId, final String rootProcessId, final double progress, AdditionalContentLookup additionalContent, final long generation, final StepTrace trace) {
+		StepTrace.Span buildSpan = trace.startSpan("buildStep");
 		final AssistanceStepBuilder assistBuilder = new AssistanceStepBuilder();
 		String title = currentElement.getLabel();
-		assistBuilder.setProcessTitles(getProcessTitles(processInstanceId));
+		assistBuilder.setProcessTitles(getProcessTitles(session, processInstanceId));
 		assistBuilder.setTitle(title);
 		assistBuilder.setProgress(progress);
 		if (contentId != null) {
@@ -520,14 +658,7 @@ public class UserInteractionHandler {
 			Action previousAction = new HttpPostAction(baseUrl + "/navigate/previous", new JsonObject().putNumber("index", 1));
 			assistBuilder.setBackAction(previousAction);
 		}
-		PopupBuilder popupBuilder = new PopupBuilder();
-		popupBuilder.setTitle("Vorheriger Schritt");
-		if (contentId != null) {
-			popupBuilder.setBody(new ContentBody.Package(contentId));
-		} else {
-			popupBuilder.setBody(new ContentBody.HTML("Für den Schritt \"" + title + "\" ist keine Assistenz hinterlegt."));
-		}
-		session.setCurrentDisplay(popupBuilder.build());
+		session.setCurrentDisplay(title, contentId);
 		if (activityProcessId != null) {
 			if (contentId == null) assistBuilder.setInfo("Für den Abschnitt ist keine Zusammenfassung hinterlegt. Klicken sie auf &quot;Anleitung anzeigen&quot; für weitere Informationen.");
 			JsonObject body = new JsonObject().putString("activityProcessId", activityProcessId);
@@ -536,9 +667,9 @@ public class UserInteractionHandler {
 		} else {
 			if (contentId == null) assistBuilder.setInfo("Für den aktuellen Schritt ist keine Assistenz hinterlegt.");
 		}
-
-		List<String> nextElements = currentElement.getNextElements();
-		boolean hasNext = nextElements != null && nextElements.size() > 0;
+		
+		final List<String> nextElements = currentElement.getNextElements();
+		final boolean hasNext = nextElements != null && nextElements.size() > 0;
 		if (hasNext) {
 			Action nextAction = new HttpPostAction(baseUrl + "/navigate/next", new JsonObject());
 			// TODO Replace text with title from next process step.
@@ -548,7 +679,7 @@ public class UserInteractionHandler {
 		
 		/*
 		connectors.kkdConnector().getContactPopup(session.getId(), session.getToken(), processId, new AsyncResultHandler<Popup>() {
-
+			
 			@Override
 			public void handle(AsyncResult<Popup> kkdRequest) {
 				if (kkdRequest.succeeded()) {
@@ -561,46 +692,124 @@ public class UserInteractionHandler {
 		assistBuilder.setContactsAction(new HttpPostAction(baseUrl + "/showContacts", new JsonObject()));
 		*/
 		
-		connectors.isConnector().getAdditionalContent(session.getUserId(), rootProcessId, processId, currentElement.getId(), new AsyncResultHandler<JsonObject>() {
-			
-			@Override
-			public void handle(AsyncResult<JsonObject> additionalContentRequest) {
-				if (additionalContentRequest.succeeded()) {
-					String contentId = additionalContentRequest.result().getString("contentId");
-					if (contentId != null) {
-						logger.debug("Received additional content for " + processId + "/" + currentElement.getId() + ": " + contentId);
-						assistBuilder.setKnowledgeAction(new HttpPostAction(baseUrl + "/showAdditionalContent", new JsonObject().putString("contentId", contentId)));
-						// DEBUG						
-						// assistBuilder.setBackAction(new HttpPostAction(baseUrl + "/showAdditionalContent", new JsonObject().putString("contentId", contentId)));
-						// END DEBUG
-					} else {
-						logger.debug("Received no additional content for " + processId + "/" + currentElement.getId() + ".");
+		buildSpan.end(true);
+		if (additionalContent == null) {
+			additionalContent = new AdditionalContentLookup(session, rootProcessId, processId, currentElement.getId(), trace);
+		}
+		if (lookupMode == ContentLookupMode.PROGRESSIVE) {
+			// Display the step immediately and add the knowledge action as soon as the additional content is known.
+			displayAssistanceStep(session, assistBuilder, contentId, trace);
+			if (hasNext) prefetchContent(session, rootProcessId, processId, nextElements);
+			additionalContent.whenComplete(new Handler<String>() {
+				
+				@Override
+				public void handle(String additionalContentId) {
+					if (additionalContentId == null) return;
+					if (!session.isCurrentRender(generation) || !isActiveElement(session, processInstanceId, currentElement)) {
+						logger.debug("Skipping update with additional content as session " + session.getId() + " has moved on.");
+						return;
 					}
-				} else {
-					logger.warn("Failed to retrieve additional content for assistance step: " + additionalContentRequest.cause());
+					assistBuilder.setKnowledgeAction(new HttpPostAction(baseUrl + "/showAdditionalContent", new JsonObject().putString("contentId", additionalContentId)));
+					displayAssistanceStep(session, assistBuilder, null, null);
 				}
+			});
+		} else {
+			additionalContent.whenComplete(new Handler<String>() {
 				
-				try {
-					AssistanceStep assistanceStep = assistBuilder.build();
-					connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
-						
-						@Override
-						public void handle(AsyncResult<Void> event) {
-							if (event.succeeded()) {
-								// Send event that content has been delivered.
-								if (contentId != null) {
-									connectors.cnsConnector().publishContentSeenEvent(session.getId(), session.getToken(), contentId);
-								}
-							} else {
-								logger.warn("Failed to update content display.", event.cause());
-							}
+				@Override
+				public void handle(String additionalContentId) {
+					if (!session.isCurrentRender(generation)) {
+						skipObsoleteStep(session, null);
+						return;
+					}
+					if (additionalContentId != null) {
+						assistBuilder.setKnowledgeAction(new HttpPostAction(baseUrl + "/showAdditionalContent", new JsonObject().putString("contentId", additionalContentId)));
+					}
+					displayAssistanceStep(session, assistBuilder, contentId, trace);
+					if (hasNext) prefetchContent(session, rootProcessId, processId, nextElements);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Sends an assistance step to the client of the session.
+	 * @param session Local session.
+	 * @param assistBuilder Builder for the assistance step.
+	 * @param contentId ID of the content displayed with the step. If not <code>null</code>, an event is published that the content has been seen. 
+	 * @param trace Trace of the step to finish when the step has been displayed. May be <code>null</code>.
+	 */
+	private void displayAssistanceStep(final LocalSession session, AssistanceStepBuilder assistBuilder, final String contentId, final StepTrace trace) {
+		try {
+			AssistanceStep assistanceStep = assistBuilder.build();
+			final StepTrace.Span displaySpan = trace != null ? trace.startSpan("displayAssistance") : null;
+			connectors.iidConnector().displayAssistance(session.getId(), MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (trace != null) {
+						displaySpan.end(event.succeeded());
+						trace.finish(event.succeeded());
+					}
+					if (event.succeeded()) {
+						// Send event that content has been delivered.
+						if (contentId != null) {
+							connectors.cnsConnector().publishContentSeenEvent(session.getId(), session.getToken(), contentId);
 						}
-					});
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to update content display.", e);
+					} else {
+						logger.warn("Failed to update content display.", event.cause());
+					}
 				}
-			}
-		});
+			}));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Failed to update content display.", e);
+			if (trace != null) trace.finish(false);
+		}
+	}
+	
+	/**
+	 * Returns the trace for a step triggered by a process event. If a navigation request of the session is waiting for the event, its trace is continued.
+	 * @param event Type of the event, used as trigger of a new trace.
+	 * @param sessionId ID of the session the event belongs to.
+	 * @return Trace for the step.
+	 */
+	private StepTrace continueTrace(String event, String sessionId) {
+		StepTrace trace = pendingTraces.remove(sessionId);
+		if (trace != null && trace.getElapsedTime() <= PENDING_TRACE_TIMEOUT) {
+			return trace;
+		}
+		return new StepTrace(event, sessionId);
+	}
+	
+	/**
+	 * Retrieves the content for the next steps while the user reads the current one.
+	 */
+	private void prefetchContent(LocalSession session, String rootProcessId, String processId, List<String> nextElements) {
+		if (connectors.isConnector().isPrefetchEnabled()) {
+			connectors.isConnector().prefetchContent(session.getUserId(), rootProcessId, processId, nextElements);
+		}
+	}
+	
+	/**
+	 * Drops an assistance step which has been superseded by a newer step of the same session, e.g., because the process has moved on through automated elements.
+	 * @param session Session the step belongs to.
+	 * @param additionalContent Lookup of additional content for the step to cancel. May be <code>null</code>.
+	 */
+	private void skipObsoleteStep(LocalSession session, AdditionalContentLookup additionalContent) {
+		if (additionalContent != null) additionalContent.cancel();
+		Metrics.countSkippedRender();
+		logger.debug("Skipping obsolete assistance step of session " + session.getId() + ".");
+	}
+	
+	/**
+	 * Checks if the given element is still the active element of the session.
+	 */
+	private boolean isActiveElement(LocalSession session, String processInstanceId, ProcessElementInstance element) {
+		ProcessInstance activeProcessInstance = session.getActiveProcessInstance();
+		ProcessElementInstance activeElement = session.getActiveElement();
+		return activeProcessInstance != null && activeElement != null
+				&& activeProcessInstance.getId().equals(processInstanceId)
+				&& activeElement.getId().equals(element.getId());
 	}
 	
 	private void sendGenericErrorPage(String sessionId, HttpException exception) {
@@ -618,7 +827,7 @@ public class UserInteractionHandler {
 		builder.setProgress(1.0d);
 		try {
 			AssistanceStep assistanceStep = builder.build();
-			connectors.iidConnector().displayAssistance(sessionId, MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
+			connectors.iidConnector().displayAssistance(sessionId, MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
 				
 				@Override
 				public void handle(AsyncResult<Void> event) {
@@ -626,7 +835,7 @@ public class UserInteractionHandler {
 						logger.warn("Failed to display error page.", event.cause());
 					}
 				}
-			});
+			}));
 		} catch (IllegalArgumentException e) {
 			logger.warn("Failed to display error page.", e);
 		}
@@ -647,7 +856,7 @@ public class UserInteractionHandler {
 		builder.setProgress(1.0d);
 		try {
 			AssistanceStep assistanceStep = builder.build();
-			connectors.iidConnector().displayAssistance(sessionId, MainVerticle.SERVICE_ID, assistanceStep, new AsyncResultHandler<Void>() {
+			connectors.iidConnector().displayAssistance(sessionId, MainVerticle.SERVICE_ID, assistanceStep, Metrics.timed("iid", "displayAssistance", new AsyncResultHandler<Void>() {
 				
 				@Override
 				public void handle(AsyncResult<Void> event) {
@@ -655,23 +864,28 @@ public class UserInteractionHandler {
 						logger.warn("Failed to display error page.", event.cause());
 					}
 				}
-			});
+			}));
 		} catch (IllegalArgumentException e) {
 			logger.warn("Failed to display error page.", e);
 		}
 	}
 	
-	public void handleStartSupportRequest(final HttpServerResponse response, final String processId, final JsonObject context, final LocalSession session) {
-		if (sessions.containsKey(session.getId())) {
+	public void handleStartSupportRequest(final ClientResponse response, final String processId, final JsonObject context, final LocalSession session) {
+		if (sessions.contains(session.getId())) {
 			logger.warn("Found existing local session. The old session will be overwritten.");
 		}
-		sessions.put(session.getId(), session);
-		connectors.pkiConnector().getProcessDefinition(processId, new AsyncResultHandler<ProcessDefinition>() {
+		sessions.put(session);
+		connectors.pkiConnector().getProcessDefinition(processId, Metrics.timed("pki", "getProcessDefinition", new AsyncResultHandler<ProcessDefinition>() {
 			
 			@Override
 			public void handle(AsyncResult<ProcessDefinition> processDefinitionRequest) {
 				if (processDefinitionRequest.succeeded()) {
-					connectors.pkiConnector().instantiateProcess(processId, session.getId(), session.getUserId(), context, new AsyncResultHandler<ProcessInstance>() {
+					Set<String> calledProcesses = new HashSet<>();
+					collectCalledProcesses(processDefinitionRequest.result().asJson(), calledProcesses);
+					if (!calledProcesses.isEmpty()) {
+						connectors.bmdConnector().prefetchMastery(session.getId(), session.getUserId(), session.getToken(), calledProcesses);
+					}
+					connectors.pkiConnector().instantiateProcess(processId, session.getId(), session.getUserId(), context, Metrics.timed("pki", "instantiateProcess", new AsyncResultHandler<ProcessInstance>() {
 						
 						@Override
 						public void handle(AsyncResult<ProcessInstance> result) {
@@ -688,7 +902,7 @@ public class UserInteractionHandler {
 								response.setStatusCode(500).end("Failed to instantiate process.");
 							}
 						}
-					});
+					}));
 				} else {
 					HttpException exception = (HttpException) processDefinitionRequest.cause();
 					switch (exception.getStatusCode()) {
@@ -700,20 +914,55 @@ public class UserInteractionHandler {
 					}
 					response.setStatusCode(exception.getStatusCode());
 					response.end(exception.getMessage());
-					sessions.remove(session);
+					closeSession(session.getId());
 				}
 			}
-		});
+		}));
 	}
-		
-	public void handleConfirmRequest(final HttpServerResponse response, String sessionId, final String processId) {
-		final LocalSession session = sessions.get(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-			return;
+	
+	/**
+	 * Collects the IDs of the processes called by call activities of a process definition.
+	 * @param json JSON representation of the process definition or one of its parts.
+	 * @param calledProcesses Set to add the process IDs to.
+	 */
+	static void collectCalledProcesses(JsonObject json, Set<String> calledProcesses) {
+		if ("callActivity".equalsIgnoreCase(json.getString("type", ""))) {
+			String calledProcess = json.getString("calledElement", json.getString("calledProcess"));
+			if (calledProcess != null) {
+				calledProcesses.add(calledProcess);
+			}
+		}
+		for (String fieldName : json.getFieldNames()) {
+			Object value = json.getValue(fieldName);
+			if (value instanceof JsonObject) {
+				collectCalledProcesses((JsonObject) value, calledProcesses);
+			} else if (value instanceof JsonArray) {
+				for (Object item : (JsonArray) value) {
+					if (item instanceof JsonObject) {
+						collectCalledProcesses((JsonObject) item, calledProcesses);
+					}
+				}
+			}
 		}
+	}
+	
+	public void handleConfirmRequest(final ClientResponse response, String sessionId, final String processId) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				handleConfirmRequest(response, session, processId);
+			}
+		});
+	}
+	
+	private void handleConfirmRequest(final ClientResponse response, final LocalSession session, final String processId) {
 		JsonObject context = session.getActiveProcessInstance() != null ? session.getActiveProcessInstance().getContext() : new JsonObject();
-		connectors.pkiConnector().instantiateProcess(processId, session.getId(), session.getUserId(), context, new AsyncResultHandler<ProcessInstance>() {
+		connectors.pkiConnector().instantiateProcess(processId, session.getId(), session.getUserId(), context, Metrics.timed("pki", "instantiateProcess", new AsyncResultHandler<ProcessInstance>() {
 			
 			@Override
 			public void handle(AsyncResult<ProcessInstance> result) {
@@ -726,15 +975,24 @@ public class UserInteractionHandler {
 					response.setStatusCode(500).end("Failed to instantiate process.");
 				}
 			}
+		}));
+	}
+	
+	public void handleNextRequest(final ClientResponse response, String sessionId, final String elementId) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				handleNextRequest(response, session, elementId);
+			}
 		});
 	}
 	
-	public void handleNextRequest(final HttpServerResponse response, String sessionId, final String elementId) {
-		final LocalSession session = sessions.get(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-			return;
-		}
+	private void handleNextRequest(final ClientResponse response, final LocalSession session, final String elementId) {
 		ProcessInstance processInstance = session.getActiveProcessInstance();
 		ProcessElementInstance currentElement = session.getActiveElement();
 		if (processInstance == null || currentElement == null) {
@@ -742,37 +1000,67 @@ public class UserInteractionHandler {
 			response.end("No support process running.");
 			return;
 		}
+		if (session.isActiveElementLeft()) {
+			// Repeated request (e.g., a double click) received before the task event for the next element.
+			Metrics.countDuplicateCommand();
+			logger.debug("Ignoring repeated navigation request for element " + currentElement.getId() + " of session " + session.getId() + ".");
+			response.end();
+			return;
+		}
 		List<String> nextElements = currentElement.getNextElements();
 		if (nextElements.size() > 0) {
-			connectors.pkiConnector().next(processInstance.getId(), session.getId(), elementId, new AsyncResultHandler<ProcessElementInstance>() {
+			final StepTrace trace = new StepTrace("/navigate/next", session.getId());
+			final StepTrace.Span nextSpan = trace.startSpan("next");
+			connectors.pkiConnector().next(processInstance.getId(), session.getId(), elementId, Metrics.timed("pki", "next", new AsyncResultHandler<ProcessElementInstance>() {
 				
 				@Override
 				public void handle(AsyncResult<ProcessElementInstance> result) {
+					nextSpan.end(result.succeeded());
 					if (result.succeeded()) {
 						// session.setCurrentElement(result.result());
+						// The step is displayed when the task event for the next element is received.
+						session.leaveActiveElement();
+						pendingTraces.put(session.getId(), trace);
 						response.end();
 					} else {
+						trace.finish(false);
 						HttpException exception = (HttpException) result.cause();
 						sendGenericErrorPage(session.getId(), exception);
 						response.setStatusCode(exception.getStatusCode());
 						response.end(exception.getMessage());
 					}
 				}
-			});
+			}));
 		} else {
 			response.end();
 		}
 	}
 	
-	public void handlePreviousRequest(final HttpServerResponse response, String sessionId, Integer index) {
-		final LocalSession session = sessions.get(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-			return;
-		}
-		Popup display = session.getDisplayFromHistory(index);
+	public void handlePreviousRequest(final ClientResponse response, String sessionId, final Integer index) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				handlePreviousRequest(response, session, index);
+			}
+		});
+	}
+	
+	private void handlePreviousRequest(final ClientResponse response, final LocalSession session, final Integer index) {
+		DisplayHistory.Step display = session.getDisplayFromHistory(index);
 		if (display != null) {
-			Popup popup = new Popup(display.asJson().copy()); // Clone to add buttons.
+			PopupBuilder popupBuilder = new PopupBuilder();
+			popupBuilder.setTitle("Vorheriger Schritt");
+			if (display.hasContent()) {
+				popupBuilder.setBody(new ContentBody.Package(display.getContentId()));
+			} else {
+				popupBuilder.setBody(new ContentBody.HTML("Für den Schritt \"" + display.getTitle() + "\" ist keine Assistenz hinterlegt."));
+			}
+			Popup popup = popupBuilder.build();
 			JsonArray buttons = new JsonArray();
 			if (session.getDisplayFromHistory(index + 1) != null) {
 				JsonObject prevButton = new JsonObject();
@@ -789,7 +1077,7 @@ public class UserInteractionHandler {
 			if (buttons.size() > 0) {
 				popup.asJson().putArray("buttons", buttons);
 			}
-			connectors.iidConnector().displayPopup(sessionId, null, MainVerticle.SERVICE_ID, popup, new AsyncResultHandler<Void>() {
+			connectors.iidConnector().displayPopup(session.getId(), null, MainVerticle.SERVICE_ID, popup, Metrics.timed("iid", "displayPopup", new AsyncResultHandler<Void>() {
 				
 				@Override
 				public void handle(AsyncResult<Void> event) {
@@ -798,20 +1086,30 @@ public class UserInteractionHandler {
 					}
 					response.end();
 				}
-			});
+			}));
 		} else {
 			// Request is ignored.
 			response.end();
 		}
 	}
 	
-	public void handleCloseRequest(final HttpServerResponse response, String sessionId, final String token) {
-		final LocalSession session = sessions.get(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-		}
+	public void handleCloseRequest(final ClientResponse response, String sessionId, final String token) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				handleCloseRequest(response, session, token);
+			}
+		});
+	}
+	
+	private void handleCloseRequest(final ClientResponse response, final LocalSession session, final String token) {
 		ProcessInstance processInstance = session.getActiveProcessInstance();
-		connectors.pkiConnector().cancel(processInstance.getId(), session.getId(), new AsyncResultHandler<Void>() {
+		connectors.pkiConnector().cancel(processInstance.getId(), session.getId(), Metrics.timed("pki", "cancel", new AsyncResultHandler<Void>() {
 			
 			@Override
 			public void handle(AsyncResult<Void> terminateRequest) {
@@ -822,16 +1120,27 @@ public class UserInteractionHandler {
 					response.setStatusCode(e.getStatusCode()).end(e.getMessage());
 				}
 				connectors.iidConnector().endDisplay(session.getId(), MainVerticle.SERVICE_ID, null);
+				closeSession(session.getId());
+				pendingTraces.remove(session.getId());
+			}
+		}));
+	}
+	
+	public void handleDetailsRequest(final ClientResponse response, String sessionId, final String token, final String activityProcessId) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session == null) {
+					response.setStatusCode(400).end("Unknown session id.");
+					return;
+				}
+				handleDetailsRequest(response, session, token, activityProcessId);
 			}
 		});
 	}
 	
-	public void handleDetailsRequest(final HttpServerResponse response, String sessionId, final String token, final String activityProcessId) {
-		final LocalSession session = sessions.get(sessionId);
-		if (session == null) {
-			response.setStatusCode(400).end("Unknown session id.");
-			return;
-		}
+	private void handleDetailsRequest(final ClientResponse response, final LocalSession session, final String token, final String activityProcessId) {
 		final ProcessInstance processInstance = session.getActiveProcessInstance();
 		ProcessElementInstance currentElement = session.getActiveElement();
 		if (processInstance == null || currentElement == null) {
@@ -844,19 +1153,21 @@ public class UserInteractionHandler {
 			response.end("Operation not available for current task.");
 			return;
 		}
-		connectors.pkiConnector().getProcessDefinition(activityProcessId, new AsyncResultHandler<ProcessDefinition>() {
+		final StepTrace trace = new StepTrace("/navigate/details", session.getId());
+		final long generation = session.startRender();
+		connectors.pkiConnector().getProcessDefinition(activityProcessId, Metrics.timed("pki", "getProcessDefinition", new AsyncResultHandler<ProcessDefinition>() {
 			@Override
 			public void handle(AsyncResult<ProcessDefinition> processDefinitionRequest) {
 				if (processDefinitionRequest.succeeded()) {
 					final ProcessDefinition processDefinition = processDefinitionRequest.result();
-					connectors.pkiConnector().confirm(processInstance.getId(), session.getId(), new AsyncResultHandler<ProcessInstance>() {
+					connectors.pkiConnector().confirm(processInstance.getId(), session.getId(), Metrics.timed("pki", "confirm", new AsyncResultHandler<ProcessInstance>() {
 						
 						@Override
 						public void handle(AsyncResult<ProcessInstance> confirmRequest) {
 							if (confirmRequest.succeeded()) {
 								final ProcessInstance activityProcessInstance = confirmRequest.result();
 								session.setActiveProcessInstance(activityProcessInstance);
-								connectors.pkiConnector().getCurrentElement(activityProcessInstance.getId(), session.getId(), new AsyncResultHandler<ProcessElementInstance>() {
+								connectors.pkiConnector().getCurrentElement(activityProcessInstance.getId(), session.getId(), Metrics.timed("pki", "getCurrentElement", new AsyncResultHandler<ProcessElementInstance>() {
 									@Override
 									public void handle(AsyncResult<ProcessElementInstance> currentElementRequest) {
 										if (currentElementRequest.succeeded()) {
@@ -864,28 +1175,228 @@ public class UserInteractionHandler {
 											response.end();
 											session.setActiveElement(currentElement);
 											String processId = processDefinition.getId();
-											retrieveAndUpdateContentForTask(session, currentElement, processId, activityProcessInstance.getId(), processId, 0.0d);
+											retrieveAndUpdateContentForTask(session, currentElement, processId, activityProcessInstance.getId(), processId, 0.0d, generation, trace);
 										} else {
 											response.setStatusCode(500).end(currentElementRequest.cause().getMessage());
 										}
 									}
-								});
+								}));
 							} else {
 								response.setStatusCode(500).end(confirmRequest.cause().getMessage());
 							}
 						}
-					});
+					}));
 				} else {
 					response.setStatusCode(500).end(processDefinitionRequest.cause().getMessage());
 				}
 			}
+		}));
+	}
+	
+	public void setClientToken(String sessionId, final String token) {
+		sessions.get(sessionId, new Handler<LocalSession>() {
+			
+			@Override
+			public void handle(LocalSession session) {
+				if (session != null) {
+					session.setToken(token);
+				}
+			}
 		});
 	}
 	
-	public void setClientToken(String sessionId, String token) {
-		LocalSession session = sessions.get(sessionId);
-		if (session != null) {
-			session.setToken(token);
+	/**
+	 * Removes a session which has been closed, completed or terminated, together with the cached state of its user.
+	 * @param sessionId ID of the session.
+	 */
+	private void closeSession(String sessionId) {
+		sessions.remove(sessionId);
+		connectors.activityCache().invalidate(sessionId);
+	}
+	
+	/**
+	 * Decision of an automated flow.
+	 * The process instance and the activity of the user are retrieved in parallel, the process is continued as soon as both are known. If the user is in a side activity, the default flow is selected without waiting for the process instance.
+	 */
+	private class AutomatedFlow {
+		private final String processInstanceId;
+		private final String sessionId;
+		private final Condition condition;
+		private final String defaultElement;
+		private final LatencyHistogram latency;
+		private final long startTime;
+		private ProcessInstance processInstance;
+		private Activity activity;
+		private boolean isActivityKnown;
+		private boolean isComplete;
+		
+		AutomatedFlow(ProcessAutomatedFlowEvent event) {
+			processInstanceId = event.getProcessInstanceId();
+			sessionId = event.getSessionId();
+			condition = event.getCondition();
+			defaultElement = event.getDefault();
+			latency = Metrics.pkiEvent("automatedFlow");
+			startTime = System.nanoTime();
+		}
+		
+		/**
+		 * Starts the lookups if this service instance owns the session. The activity is answered immediately if it is cached.
+		 */
+		void start() {
+			sessions.claim(sessionId, new Handler<Boolean>() {
+				
+				@Override
+				public void handle(Boolean isOwner) {
+					if (isOwner) {
+						lookup();
+					}
+				}
+			});
+		}
+		
+		private void lookup() {
+			connectors.activityCache().getUserActivity(sessionId, new AsyncResultHandler<Activity>() {
+				
+				@Override
+				public void handle(AsyncResult<Activity> activityRequest) {
+					if (activityRequest.succeeded()) {
+						activity = activityRequest.result();
+						isActivityKnown = true;
+						decide();
+					} else {
+						fail("Failed to retrieve user activity to perform automated flow.", activityRequest.cause());
+					}
+				}
+			});
+			if (isComplete) return;
+			connectors.pkiConnector().getProcessInstance(processInstanceId, Metrics.timed("pki", "getProcessInstance", new AsyncResultHandler<ProcessInstance>() {
+				
+				@Override
+				public void handle(AsyncResult<ProcessInstance> instanceRequest) {
+					if (instanceRequest.succeeded()) {
+						processInstance = instanceRequest.result();
+						decide();
+					} else {
+						fail("Failed to retrieve process instance to perform automated flow.", instanceRequest.cause());
+					}
+				}
+			}));
+		}
+		
+		private void decide() {
+			if (isComplete || !isActivityKnown) return;
+			if (activity == Activity.SIDE && defaultElement != null) {
+				isComplete = true;
+				logger.debug("Selected default flow as user is in side activity: " + defaultElement);
+				next(defaultElement);
+			} else if (processInstance != null) {
+				isComplete = true;
+				if (logger.isDebugEnabled()) {
+					logger.debug("Context to decide automated flow: " + processInstance.getContext().encodePrettily());
+				}
+				next(flowDecisions.getElementForContext(processInstance.getProcessId(), condition, processInstance.getContext()));
+			}
+		}
+		
+		private void next(String elementId) {
+			connectors.pkiConnector().next(processInstanceId, sessionId, elementId, Metrics.timed("pki", "next", new AsyncResultHandler<ProcessElementInstance>() {
+				
+				@Override
+				public void handle(AsyncResult<ProcessElementInstance> result) {
+					latency.recordSince(startTime, result.failed());
+					if (!result.succeeded()) {
+						logger.warn("Failed to continue process with automated flow.", result.cause());
+					}
+				}
+			}));
+		}
+		
+		private void fail(String message, Throwable cause) {
+			if (isComplete) return;
+			isComplete = true;
+			latency.recordSince(startTime, true);
+			logger.warn(message, cause);
+		}
+	}
+	
+	/**
+	 * Lookup of the additional content for a process element.
+	 * If the lookup fails or does not complete within the configured time, the element is displayed without additional content.
+	 * In progressive mode, the element is displayed without waiting for the lookup. Hence the lookup is not limited in time, its result is passed on whenever it arrives unless the lookup has been cancelled.
+	 */
+	private class AdditionalContentLookup {
+		private final String stepId;
+		private final long timerId;
+		private boolean isComplete;
+		private String contentId;
+		private Handler<String> completionHandler;
+		private final StepTrace.Span span;
+		
+		AdditionalContentLookup(LocalSession session, String rootProcessId, String processId, String elementId, StepTrace trace) {
+			stepId = processId + "/" + elementId;
+			span = trace.startSpan("getAdditionalContent");
+			if (additionalContentTimeout > 0 && lookupMode != ContentLookupMode.PROGRESSIVE) {
+				timerId = vertx.setTimer(additionalContentTimeout, new Handler<Long>() {
+					
+					@Override
+					public void handle(Long timerId) {
+						logger.debug("Lookup of additional content for " + stepId + " timed out.");
+						complete(null, false);
+					}
+				});
+			} else {
+				timerId = -1;
+			}
+			connectors.isConnector().getAdditionalContent(session.getUserId(), rootProcessId, processId, elementId, new AsyncResultHandler<JsonObject>() {
+				
+				@Override
+				public void handle(AsyncResult<JsonObject> additionalContentRequest) {
+					if (isComplete) return; // Timed out or cancelled.
+					if (additionalContentRequest.succeeded()) {
+						String contentId = additionalContentRequest.result().getString("contentId");
+						if (contentId != null) {
+							logger.debug("Received additional content for " + stepId + ": " + contentId);
+						} else {
+							logger.debug("Received no additional content for " + stepId + ".");
+						}
+						complete(contentId, true);
+					} else {
+						logger.warn("Failed to retrieve additional content for assistance step: " + additionalContentRequest.cause());
+						complete(null, false);
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Sets the handler for the result of the lookup. If the lookup is already complete, the handler is called immediately.
+		 * @param handler Handler for the ID of the additional content. Receives <code>null</code> if no additional content is available.
+		 */
+		void whenComplete(Handler<String> handler) {
+			if (isComplete) {
+				handler.handle(contentId);
+			} else {
+				completionHandler = handler;
+			}
+		}
+		
+		/**
+		 * Discards the result of the lookup.
+		 */
+		void cancel() {
+			completionHandler = null;
+			complete(null, false);
+		}
+		
+		private void complete(String contentId, boolean succeeded) {
+			if (isComplete) return;
+			isComplete = true;
+			span.end(succeeded);
+			if (timerId != -1) vertx.cancelTimer(timerId);
+			this.contentId = contentId;
+			if (completionHandler != null) {
+				completionHandler.handle(contentId);
+			}
 		}
 	}
 }
@@ -0,0 +1,152 @@
+package de.appsist.service.ps.connector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.connector.IIDConnector;
+import de.appsist.service.iid.server.model.Activity;
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Cache for the activity of users, as requested from the IID service.
+ * The activity is only cached if an event address is configured: Changes of the activity published at this address update the cached activity of the session. The events are expected to contain the fields <code>sessionId</code> and <code>activity</code> (<code>main</code> or <code>side</code>). Without event address, the activity is requested each time, as a cached activity could be outdated.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class ActivityCache {
+	private static final Logger logger = LoggerFactory.getLogger(ActivityCache.class);
+	
+	private final IIDConnector iidConnector;
+	private final long cacheTtl;
+	private final Map<String, CachedActivity> activities; // <sessionId, CachedActivity>
+	
+	private static class CachedActivity {
+		final Activity activity;
+		final long expires;
+		
+		CachedActivity(Activity activity, long expires) {
+			this.activity = activity;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Creates the cache.
+	 * @param eventBus Event bus to receive activity changes.
+	 * @param iidConnector Connector to request the activity from the IID service.
+	 * @param cacheTtl Maximum time in milliseconds an activity is cached without update. If <code>0</code>, activities are not cached.
+	 * @param maxEntries Maximum number of sessions to cache the activity for.
+	 * @param eventAddress Address activity changes are published at. If <code>null</code>, activities are not cached.
+	 */
+	public ActivityCache(EventBus eventBus, IIDConnector iidConnector, long cacheTtl, final int maxEntries, String eventAddress) {
+		this.iidConnector = iidConnector;
+		this.cacheTtl = eventAddress != null ? cacheTtl : 0;
+		this.activities = new LinkedHashMap<String, CachedActivity>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CachedActivity> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		if (this.cacheTtl > 0) {
+			eventBus.registerHandler(eventAddress, new Handler<Message<JsonObject>>() {
+				
+				@Override
+				public void handle(Message<JsonObject> message) {
+					handleActivityChange(message.body());
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns the current activity of the user of a session.
+	 * @param sessionId ID of the session.
+	 * @param resultHandler Handler for the activity. Called immediately if the activity is cached.
+	 */
+	public void getUserActivity(final String sessionId, final AsyncResultHandler<Activity> resultHandler) {
+		final Activity cachedActivity = getCachedActivity(sessionId);
+		if (cachedActivity != null) {
+			resultHandler.handle(new AsyncResult<Activity>() {
+				
+				@Override
+				public boolean succeeded() {
+					return true;
+				}
+				
+				@Override
+				public Activity result() {
+					return cachedActivity;
+				}
+				
+				@Override
+				public boolean failed() {
+					return false;
+				}
+				
+				@Override
+				public Throwable cause() {
+					return null;
+				}
+			});
+			return;
+		}
+		iidConnector.getUserActivity(sessionId, Metrics.timed("iid", "getUserActivity", new AsyncResultHandler<Activity>() {
+			
+			@Override
+			public void handle(AsyncResult<Activity> activityRequest) {
+				if (activityRequest.succeeded() && activityRequest.result() != null) {
+					cacheActivity(sessionId, activityRequest.result());
+				}
+				resultHandler.handle(activityRequest);
+			}
+		}));
+	}
+	
+	/**
+	 * Removes the cached activity of a session, e.g., because the session has been closed.
+	 * @param sessionId ID of the session.
+	 */
+	public void invalidate(String sessionId) {
+		activities.remove(sessionId);
+	}
+	
+	private void handleActivityChange(JsonObject event) {
+		String sessionId = event.getString("sessionId");
+		if (sessionId == null || !activities.containsKey(sessionId)) return; // Only sessions handled by this instance are cached.
+		Activity activity;
+		try {
+			activity = Activity.valueOf(event.getString("activity", "").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Received activity change with unknown activity: " + event.encode());
+			activities.remove(sessionId);
+			return;
+		}
+		cacheActivity(sessionId, activity);
+	}
+	
+	private Activity getCachedActivity(String sessionId) {
+		CachedActivity entry = activities.get(sessionId);
+		if (entry == null) return null;
+		if (entry.expires <= System.currentTimeMillis()) {
+			activities.remove(sessionId);
+			return null;
+		}
+		return entry.activity;
+	}
+	
+	private void cacheActivity(String sessionId, Activity activity) {
+		if (cacheTtl <= 0) return;
+		activities.put(sessionId, new CachedActivity(activity, System.currentTimeMillis() + cacheTtl));
+	}
+}
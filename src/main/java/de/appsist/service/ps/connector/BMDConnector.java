@@ -1,23 +1,58 @@
 package de.appsist.service.ps.connector;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.ps.metrics.LatencyHistogram;
+import de.appsist.service.ps.metrics.Metrics;
 
 /**
  * Connector for the learning experience service.
+ * Answers whether a user masters a process are cached per user and process for a limited time.
  * @author simon.schwantzer(at)im-c.de
  */
 public class BMDConnector {
 	private final static String SERVICE_ID = "appsist:service:usermodel";
+	private final static long BULK_REQUEST_TIMEOUT = 5000l;
+	private static final Logger logger = LoggerFactory.getLogger(BMDConnector.class);
 	
 	private final EventBus eventBus;
+	private final ServiceGuard guard;
+	private final long cacheTtl;
+	private final Map<String, Map<String, CachedMastery>> masteryCache; // <userId, <processId, CachedMastery>>
 	
-	public BMDConnector(EventBus eventBus) {
+	private static class CachedMastery {
+		final boolean mastered;
+		final long expires;
+		
+		CachedMastery(boolean mastered, long expires) {
+			this.mastered = mastered;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Creates the connector.
+	 * @param eventBus Event bus to communicate with the user model service.
+	 * @param guard Guard for requests to the user model service.
+	 * @param cacheTtl Time in milliseconds an answer of the user model service is cached. If <code>0</code>, answers are not cached.
+	 */
+	public BMDConnector(EventBus eventBus, ServiceGuard guard, long cacheTtl) {
 		this.eventBus = eventBus;
+		this.guard = guard;
+		this.cacheTtl = cacheTtl;
+		this.masteryCache = new HashMap<>();
 	}
 	/*
 	public int getNumberOfCompletedExecutions(String processId, String userId, String token) {
@@ -25,43 +60,162 @@ public class BMDConnector {
 		return random.nextInt(100);
 	}*/
 	
-	public void isExperienced(String sessionId, String processId, String userId, String token, final AsyncResultHandler<Boolean> resultHandler) {
-		String address = SERVICE_ID + "#mastersProcess"; 
-		JsonObject request = new JsonObject()
+	public void isExperienced(String sessionId, final String processId, final String userId, String token, final AsyncResultHandler<Boolean> resultHandler) {
+		final Boolean cachedMastery = getCachedMastery(userId, processId);
+		if (cachedMastery != null) {
+			resultHandler.handle(new AsyncResult<Boolean>() {
+				
+				@Override
+				public boolean succeeded() {
+					return true;
+				}
+				
+				@Override
+				public Boolean result() {
+					return cachedMastery;
+				}
+				
+				@Override
+				public boolean failed() {
+					return false;
+				}
+				
+				@Override
+				public Throwable cause() {
+					return null;
+				}
+			});
+			return;
+		}
+		final String address = SERVICE_ID + "#mastersProcess"; 
+		final JsonObject request = new JsonObject()
 			.putString("sessionId", sessionId)
 			.putString("userId", userId)
 			.putString("token", token)
 			.putString("processId", processId);
-		eventBus.send(address, request, new Handler<Message<JsonObject>>() {
+		guard.execute("mastersProcess", true, new Handler<AsyncResultHandler<Boolean>>() {
 			
 			@Override
-			public void handle(Message<JsonObject> message) {
-				final JsonObject body = message.body();
-				final Boolean mastered = body.getBoolean("mastered");
-				
-				resultHandler.handle(new AsyncResult<Boolean>() {
-					
-					@Override
-					public boolean succeeded() {
-						return mastered != null;
-					}
-					
-					@Override
-					public Boolean result() {
-						return mastered;
-					}
-					
-					@Override
-					public boolean failed() {
-						return !succeeded();
-					}
+			public void handle(final AsyncResultHandler<Boolean> attemptHandler) {
+				eventBus.sendWithTimeout(address, request, guard.getTimeout(), new Handler<AsyncResult<Message<JsonObject>>>() {
 					
 					@Override
-					public Throwable cause() {
-						return failed() ? new Throwable("Failed to retrieve user experience on task. Response: " + body.encode()) : null;
+					public void handle(final AsyncResult<Message<JsonObject>> reply) {
+						final JsonObject body = reply.succeeded() ? reply.result().body() : null;
+						final Boolean mastered = body != null ? body.getBoolean("mastered") : null;
+						if (mastered != null) {
+							cacheMastery(userId, processId, mastered);
+						}
+						
+						attemptHandler.handle(new AsyncResult<Boolean>() {
+							
+							@Override
+							public boolean succeeded() {
+								return mastered != null;
+							}
+							
+							@Override
+							public Boolean result() {
+								return mastered;
+							}
+							
+							@Override
+							public boolean failed() {
+								return !succeeded();
+							}
+							
+							@Override
+							public Throwable cause() {
+								if (succeeded()) return null;
+								return body != null ? new Throwable("Failed to retrieve user experience on task. Response: " + body.encode()) : reply.cause();
+							}
+						});
 					}
 				});
 			}
+		}, resultHandler);
+	}
+	
+	/**
+	 * Requests the mastery of a number of processes at once and stores the answers in the cache.
+	 * Processes already cached are not requested again. Failures are logged and ignored, the processes are requested individually when required.
+	 * @param sessionId ID of the session the request is performed for.
+	 * @param userId ID of the user.
+	 * @param token Session token.
+	 * @param processIds IDs of the processes to request the mastery for.
+	 */
+	public void prefetchMastery(String sessionId, final String userId, String token, Collection<String> processIds) {
+		if (cacheTtl <= 0) return;
+		JsonArray missingProcessIds = new JsonArray();
+		for (String processId : processIds) {
+			if (getCachedMastery(userId, processId) == null) {
+				missingProcessIds.addString(processId);
+			}
+		}
+		if (missingProcessIds.size() == 0) return;
+		JsonObject request = new JsonObject()
+			.putString("sessionId", sessionId)
+			.putString("userId", userId)
+			.putString("token", token)
+			.putArray("processIds", missingProcessIds);
+		final LatencyHistogram latency = Metrics.connectorCall(guard.getServiceName(), "mastersProcesses");
+		final long startTime = System.nanoTime();
+		eventBus.sendWithTimeout(SERVICE_ID + "#mastersProcesses", request, BULK_REQUEST_TIMEOUT, new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> bulkRequest) {
+				latency.recordSince(startTime, bulkRequest.failed());
+				if (bulkRequest.failed()) {
+					logger.debug("Failed to request mastery of processes: " + bulkRequest.cause().getMessage());
+					return;
+				}
+				JsonObject mastered = bulkRequest.result().body().getObject("mastered");
+				if (mastered == null) {
+					logger.debug("Invalid response for mastery request: " + bulkRequest.result().body().encode());
+					return;
+				}
+				for (String processId : mastered.getFieldNames()) {
+					Boolean isMastered = mastered.getBoolean(processId);
+					if (isMastered != null) {
+						cacheMastery(userId, processId, isMastered);
+					}
+				}
+			}
 		});
 	}
+	
+	/**
+	 * Removes the cached answer whether a user masters a process, e.g., because the user has completed the process.
+	 * @param userId ID of the user.
+	 * @param processId ID of the process.
+	 */
+	public void invalidateMastery(String userId, String processId) {
+		Map<String, CachedMastery> userCache = masteryCache.get(userId);
+		if (userCache == null) return;
+		userCache.remove(processId);
+		if (userCache.isEmpty()) masteryCache.remove(userId);
+	}
+	
+	private Boolean getCachedMastery(String userId, String processId) {
+		Map<String, CachedMastery> userCache = masteryCache.get(userId);
+		if (userCache == null) return null;
+		CachedMastery entry = userCache.get(processId);
+		if (entry == null) return null;
+		if (entry.expires <= System.currentTimeMillis()) {
+			userCache.remove(processId);
+			if (userCache.isEmpty()) masteryCache.remove(userId);
+			return null;
+		}
+		return entry.mastered;
+	}
+	
+	private void cacheMastery(String userId, String processId, boolean mastered) {
+		if (cacheTtl <= 0) return;
+		Map<String, CachedMastery> userCache = masteryCache.get(userId);
+		if (userCache == null) {
+			userCache = new HashMap<>();
+			masteryCache.put(userId, userCache);
+		}
+		userCache.put(processId, new CachedMastery(mastered, System.currentTimeMillis() + cacheTtl));
+	}
 }
@@ -1,18 +1,44 @@
 package de.appsist.service.ps.connector;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
+import de.appsist.service.ps.metrics.Metrics;
+
 /**
  * Connector for the content navigation service.
+ * ContentSeen events may be collected and sent in batches. Repeated events for the same content in the same session are merged. Sent and merged events are counted in the {@link Metrics}.
  * @author simon.schwantzer(at)im-c.de
  *
  */
 public class CNSConnector {
+	private static final String CONTENT_SEEN_ADDRESS = "appsist:content:contentSeen";
+	
+	private final Vertx vertx;
 	private final EventBus eventBus;
+	private final int maxBatchSize;
+	private final long maxDelay;
+	private final Map<String, JsonObject> pendingEvents; // <sessionId|contentId, event>
+	private long flushTimerId = -1;
 	
-	public CNSConnector(EventBus eventBus) {
-		this.eventBus = eventBus;
+	/**
+	 * Creates the connector.
+	 * @param vertx Vert.x instance.
+	 * @param maxBatchSize Maximum number of events to send at once. If <code>1</code> or less, each event is sent immediately.
+	 * @param maxDelay Maximum time in milliseconds an event is delayed.
+	 */
+	public CNSConnector(Vertx vertx, int maxBatchSize, long maxDelay) {
+		this.vertx = vertx;
+		this.eventBus = vertx.eventBus();
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+		this.pendingEvents = new LinkedHashMap<>();
 	}
 	
 	public void publishContentSeenEvent(String sessionId, String token, String contentId) {
@@ -20,6 +46,49 @@ public class CNSConnector {
 			.putString("sessionId", sessionId)
 			.putString("token", token)
 			.putString("contentId", contentId);
-		eventBus.send("appsist:content:contentSeen", message);
+		if (maxBatchSize <= 1) {
+			eventBus.send(CONTENT_SEEN_ADDRESS, message);
+			Metrics.countContentSeenBatch(1);
+			return;
+		}
+		String key = sessionId + "|" + contentId;
+		if (pendingEvents.put(key, message) != null) {
+			Metrics.countMergedContentSeen();
+		}
+		if (pendingEvents.size() >= maxBatchSize) {
+			flush();
+		} else if (flushTimerId == -1) {
+			flushTimerId = vertx.setTimer(maxDelay, new Handler<Long>() {
+				
+				@Override
+				public void handle(Long timerId) {
+					flushTimerId = -1;
+					flush();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Sends all pending events.
+	 * A single event is sent as is, multiple events are sent as one message with an <code>events</code> array.
+	 */
+	public void flush() {
+		if (flushTimerId != -1) {
+			vertx.cancelTimer(flushTimerId);
+			flushTimerId = -1;
+		}
+		if (pendingEvents.isEmpty()) return;
+		if (pendingEvents.size() == 1) {
+			eventBus.send(CONTENT_SEEN_ADDRESS, pendingEvents.values().iterator().next());
+		} else {
+			JsonArray events = new JsonArray();
+			for (JsonObject event : pendingEvents.values()) {
+				events.addObject(event);
+			}
+			eventBus.send(CONTENT_SEEN_ADDRESS, new JsonObject().putArray("events", events));
+		}
+		Metrics.countContentSeenBatch(pendingEvents.size());
+		pendingEvents.clear();
 	}
 }
@@ -0,0 +1,91 @@
+package de.appsist.service.ps.connector;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Circuit breaker for a backend service.
+ * After a number of consecutive failures the breaker opens and requests fail immediately. When the reset timeout has passed, a single trial request is let through: if it succeeds, the breaker closes again, otherwise it stays open for another reset timeout.
+ * The breaker is not thread safe and has to be used from the event loop of the verticle owning it.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	private final int failureThreshold;
+	private final long resetTimeout;
+	private State state;
+	private int consecutiveFailures;
+	private long openedAt;
+	private long rejectedCount;
+	private long openCount;
+	
+	/**
+	 * Creates a closed circuit breaker.
+	 * @param failureThreshold Number of consecutive failures to open the breaker.
+	 * @param resetTimeout Time in milliseconds the breaker stays open before a trial request is permitted.
+	 */
+	public CircuitBreaker(int failureThreshold, long resetTimeout) {
+		this.failureThreshold = failureThreshold;
+		this.resetTimeout = resetTimeout;
+		this.state = State.CLOSED;
+	}
+	
+	/**
+	 * Checks if a request may be performed. If the breaker is open and the reset timeout has passed, the breaker switches to half open and permits one request.
+	 * @return <code>true</code> if the request may be performed, <code>false</code> if it has to fail immediately.
+	 */
+	public boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt >= resetTimeout) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			rejectedCount++;
+			return false;
+		case HALF_OPEN:
+		default:
+			// The trial request is still running.
+			rejectedCount++;
+			return false;
+		}
+	}
+	
+	public void recordSuccess() {
+		consecutiveFailures = 0;
+		state = State.CLOSED;
+	}
+	
+	public void recordFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			if (state != State.OPEN) openCount++;
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+	
+	public State getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the state of the breaker and its counters.
+	 * @return JSON object describing the breaker.
+	 */
+	public JsonObject asJson() {
+		JsonObject json = new JsonObject()
+			.putString("state", state.name())
+			.putNumber("consecutiveFailures", consecutiveFailures)
+			.putNumber("rejected", rejectedCount)
+			.putNumber("opened", openCount);
+		if (state != State.CLOSED) {
+			json.putNumber("openedAt", openedAt);
+		}
+		return json;
+	}
+}
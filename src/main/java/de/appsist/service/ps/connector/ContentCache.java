@@ -0,0 +1,166 @@
+package de.appsist.service.ps.connector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Cache for content lookups.
+ * Successful results are kept for a limited time, the number of entries is limited with the least recently used entries being evicted first.
+ * Concurrent lookups for the same key are coalesced: only the first one is performed, the others receive its result.
+ * Hits, misses and coalesced lookups are counted in the {@link Metrics}.
+ * The cache is not thread safe and has to be used from the event loop of the verticle owning it.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class ContentCache {
+	private final int maxEntries;
+	private final long ttl;
+	private final LinkedHashMap<String, Entry> entries; // <key, Entry> in access order
+	private final Map<String, List<AsyncResultHandler<JsonObject>>> pendingLookups; // <key, handlers waiting for the result>
+	
+	private static class Entry {
+		final JsonObject result;
+		final long expires;
+		
+		Entry(JsonObject result, long expires) {
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Creates a content cache.
+	 * @param maxEntries Maximum number of entries to keep. If <code>0</code>, results are not cached but concurrent lookups are still coalesced.
+	 * @param ttl Time in milliseconds a result is kept.
+	 */
+	public ContentCache(int maxEntries, long ttl) {
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.pendingLookups = new HashMap<>();
+	}
+	
+	/**
+	 * Retrieves a result from the cache or performs the lookup if the result is not cached.
+	 * @param key Key identifying the lookup.
+	 * @param lookup Handler performing the lookup. It receives the handler to pass the result to.
+	 * @param resultHandler Handler for the result. Receives a copy of the result which may be modified.
+	 */
+	public void get(final String key, Handler<AsyncResultHandler<JsonObject>> lookup, AsyncResultHandler<JsonObject> resultHandler) {
+		JsonObject cachedResult = getCachedResult(key);
+		if (cachedResult != null) {
+			Metrics.countContentCacheHit();
+			resultHandler.handle(new CachedResult(cachedResult.copy()));
+			return;
+		}
+		List<AsyncResultHandler<JsonObject>> waitingHandlers = pendingLookups.get(key);
+		if (waitingHandlers != null) {
+			Metrics.countCoalescedContentLookup();
+			waitingHandlers.add(resultHandler);
+			return;
+		}
+		Metrics.countContentCacheMiss();
+		waitingHandlers = new ArrayList<>();
+		waitingHandlers.add(resultHandler);
+		pendingLookups.put(key, waitingHandlers);
+		lookup.handle(new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> lookupResult) {
+				List<AsyncResultHandler<JsonObject>> waitingHandlers = pendingLookups.remove(key);
+				if (lookupResult.succeeded()) {
+					JsonObject result = lookupResult.result();
+					put(key, result);
+					for (AsyncResultHandler<JsonObject> handler : waitingHandlers) {
+						handler.handle(new CachedResult(result.copy()));
+					}
+				} else {
+					for (AsyncResultHandler<JsonObject> handler : waitingHandlers) {
+						handler.handle(lookupResult);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Checks if a valid result for the given key is cached.
+	 * @param key Key identifying the lookup.
+	 * @return <code>true</code> if the result is cached, otherwise <code>false</code>.
+	 */
+	public boolean contains(String key) {
+		Entry entry = entries.get(key);
+		return entry != null && entry.expires > System.currentTimeMillis();
+	}
+	
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	private JsonObject getCachedResult(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expires <= System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.result;
+	}
+	
+	private void put(String key, JsonObject result) {
+		if (maxEntries < 1 || result == null) return;
+		entries.put(key, new Entry(result.copy(), System.currentTimeMillis() + ttl));
+		if (entries.size() > maxEntries) {
+			Iterator<Entry> iterator = entries.values().iterator();
+			iterator.next();
+			iterator.remove();
+		}
+	}
+	
+	private static class CachedResult implements AsyncResult<JsonObject> {
+		private final JsonObject result;
+		
+		CachedResult(JsonObject result) {
+			this.result = result;
+		}
+		
+		@Override
+		public JsonObject result() {
+			return result;
+		}
+		
+		@Override
+		public Throwable cause() {
+			return null;
+		}
+		
+		@Override
+		public boolean succeeded() {
+			return true;
+		}
+		
+		@Override
+		public boolean failed() {
+			return false;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package de.appsist.service.ps.connector;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.vertx.java.core.AsyncResult;
@@ -9,6 +10,7 @@ import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
@@ -19,16 +21,41 @@ import de.appsist.service.pki.connector.HttpException;
 public class ISConnector {
 	private static final Logger logger = LoggerFactory.getLogger(ISConnector.class);
 	private final HttpClient isClient;
+	private final ServiceGuard guard;
 	private final String basePath;
 	private final Map<String, String> contentReferenceCache;
+	private final ContentCache contentCache;
+	private final boolean isPrefetchEnabled;
+	private final int prefetchLimit;
+	private final int maxPoolSize;
+	private int pendingRequests; // Requests waiting for a response, either using or waiting for a connection.
+	private int peakPendingRequests;
+	private long requestCount;
+	private long connectionErrorCount;
 	
-	public ISConnector(Vertx vertx, JsonObject serviceConfig) {
+	public ISConnector(Vertx vertx, JsonObject serviceConfig, ServiceGuard guard) {
+		this.guard = guard;
 		isClient = vertx.createHttpClient();
 		isClient.setHost(serviceConfig.getString("host"));
 		isClient.setPort(serviceConfig.getInteger("port"));
 		isClient.setSSL(serviceConfig.getBoolean("secure", false));
+		JsonObject clientConfig = serviceConfig.getObject("ihsClient", new JsonObject());
+		maxPoolSize = clientConfig.getInteger("maxPoolSize", 20);
+		isClient.setMaxPoolSize(maxPoolSize);
+		isClient.setKeepAlive(clientConfig.getBoolean("keepAlive", true));
+		isClient.setPipelining(clientConfig.getBoolean("pipelining", false));
+		isClient.setConnectTimeout(clientConfig.getInteger("connectTimeout", 2000));
 		basePath = serviceConfig.getObject("paths").getString("ihs");
 		contentReferenceCache = new HashMap<>();
+		JsonObject cacheConfig = serviceConfig.getObject("contentCache", new JsonObject());
+		contentCache = new ContentCache(cacheConfig.getInteger("maxEntries", 10000), cacheConfig.getLong("ttl", 300) * 1000);
+		JsonObject prefetchConfig = cacheConfig.getObject("prefetch", new JsonObject());
+		isPrefetchEnabled = prefetchConfig.getBoolean("enabled", false);
+		prefetchLimit = prefetchConfig.getInteger("maxElements", 3);
+		int prewarmConnections = Math.min(clientConfig.getInteger("prewarm", 0), maxPoolSize);
+		if (prewarmConnections > 0) {
+			prewarm(prewarmConnections);
+		}
 	}
 	
 	/*
@@ -66,40 +93,8 @@ public class ISConnector {
 			.append("&processId=").append(processId)
 			.append("&elementId=").append(elementId)
 			.append("&userId=").append(userId);
-		isClient.get(path.toString(), new Handler<HttpClientResponse>() {
-			
-			@Override
-			public void handle(final HttpClientResponse response) {
-				response.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(final Buffer buffer) {
-						
-						resultHandler.handle(new AsyncResult<JsonObject>() {
-							@Override
-							public boolean succeeded() {
-								return response.statusCode() == 200;
-							}
-							
-							@Override
-							public JsonObject result() {
-								return succeeded() ? new JsonObject(buffer.toString()) : null;
-							}
-							
-							@Override
-							public boolean failed() {
-								return !succeeded();
-							}
-							
-							@Override
-							public Throwable cause() {
-								return failed() ? new HttpException(buffer.toString(), response.statusCode()) : null;
-							}
-						});
-					}
-				});
-			}
-		}).end();
+		String key = generateCacheKey("task", rootProcessId, processId, elementId, userId);
+		requestContent("contentForTask", key, path.toString(), resultHandler);
 	}
 	
 	public void getContentForCallActivity(String userId, String rootProcessId, String processId, String activityProcessId, final AsyncResultHandler<JsonObject> resultHandler) {
@@ -110,40 +105,8 @@ public class ISConnector {
 			.append("&calledProcess=").append(activityProcessId)
 			.append("&userId=").append(userId);
 		logger.debug("Requesting content for call activity: " + path.toString());
-		isClient.get(path.toString(), new Handler<HttpClientResponse>() {
-			
-			@Override
-			public void handle(final HttpClientResponse response) {
-				response.bodyHandler(new Handler<Buffer>() {
-					
-					@Override
-					public void handle(final Buffer buffer) {
-						logger.debug("Received response for call activity content request: " + buffer.toString());
-						resultHandler.handle(new AsyncResult<JsonObject>() {
-							@Override
-							public boolean succeeded() {
-								return response.statusCode() == 200;
-							}
-							
-							@Override
-							public JsonObject result() {
-								return succeeded() ? new JsonObject(buffer.toString()) : null;
-							}
-							
-							@Override
-							public boolean failed() {
-								return !succeeded();
-							}
-							
-							@Override
-							public Throwable cause() {
-								return failed() ? new HttpException(buffer.toString(), response.statusCode()) : null;
-							}
-						});
-					}
-				});
-			}
-		}).end();
+		String key = generateCacheKey("activity", rootProcessId, processId, activityProcessId, userId);
+		requestContent("contentForActivity", key, path.toString(), resultHandler);
 	}
 	
 	public void getAdditionalContent(final String userId, final String rootProcessId, final String processId, final String elementId, final AsyncResultHandler<JsonObject> resultHandler) {
@@ -154,7 +117,163 @@ public class ISConnector {
 			.append("&elementId=").append(elementId)
 			.append("&userId=").append(userId);
 		logger.debug("Requesting additional content: " + path.toString());
-		isClient.get(path.toString(), new Handler<HttpClientResponse>() {
+		String key = generateCacheKey("additional", rootProcessId, processId, elementId, userId);
+		requestContent("additionalContent", key, path.toString(), new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> contentRequest) {
+				if (contentRequest.succeeded()) {
+					JsonObject result = contentRequest.result();
+					String contentId = result.getString("contentId");
+					if (contentId != null) {
+						addReferenceToCache(processId, elementId, userId, contentId);
+					} else {
+						String cachedContentId = retrieveReferenceFromCache(processId, elementId, userId);
+						if (cachedContentId != null) {
+							logger.debug("Using cached content: " + cachedContentId);
+							result.putString("contentId", cachedContentId);
+						}
+					}
+				}
+				resultHandler.handle(contentRequest);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the cache for content lookups.
+	 * @return Content cache.
+	 */
+	public ContentCache getContentCache() {
+		return contentCache;
+	}
+	
+	/**
+	 * Checks if content for upcoming process elements should be retrieved in advance.
+	 * @return <code>true</code> if prefetching is enabled, otherwise <code>false</code>.
+	 */
+	public boolean isPrefetchEnabled() {
+		return isPrefetchEnabled;
+	}
+	
+	/**
+	 * Retrieves the content and additional content for the given process elements in the background.
+	 * The results are stored in the content cache and serve subsequent requests for these elements. Elements already cached are skipped.
+	 * @param userId ID of the user.
+	 * @param rootProcessId ID of the root process.
+	 * @param processId ID of the process the elements belong to.
+	 * @param elementIds IDs of the elements to retrieve content for. Only the configured number of elements is considered.
+	 */
+	public void prefetchContent(String userId, String rootProcessId, String processId, List<String> elementIds) {
+		AsyncResultHandler<JsonObject> prefetchHandler = new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> prefetchRequest) {
+				if (prefetchRequest.failed()) {
+					logger.debug("Failed to prefetch content: " + prefetchRequest.cause().getMessage());
+				}
+			}
+		};
+		int count = 0;
+		for (String elementId : elementIds) {
+			if (count++ >= prefetchLimit) break;
+			if (!contentCache.contains(generateCacheKey("task", rootProcessId, processId, elementId, userId))) {
+				getContentForTask(userId, rootProcessId, processId, elementId, prefetchHandler);
+			}
+			if (!contentCache.contains(generateCacheKey("additional", rootProcessId, processId, elementId, userId))) {
+				getAdditionalContent(userId, rootProcessId, processId, elementId, prefetchHandler);
+			}
+		}
+	}
+	
+	/**
+	 * Returns statistics for the requests of the inventory service client. Each verticle instance has its own client with its own pool.
+	 * The HTTP client of vert.x 2 does not report its connections, hence only the requests are counted: Pending requests either use a connection of the pool or wait for one if more than <code>maxPoolSize</code> requests are pending.
+	 * @return JSON object with the statistics.
+	 */
+	public JsonObject getPoolStatus() {
+		return new JsonObject()
+			.putNumber("maxPoolSize", maxPoolSize)
+			.putNumber("pendingRequests", pendingRequests)
+			.putNumber("peakPendingRequests", peakPendingRequests)
+			.putNumber("requests", requestCount)
+			.putNumber("connectionErrors", connectionErrorCount);
+	}
+	
+	/**
+	 * Opens connections to the inventory service in advance by sending concurrent HEAD requests for the base path.
+	 * The connections are kept in the pool if keep alive is enabled.
+	 * @param connections Number of connections to open.
+	 */
+	private void prewarm(final int connections) {
+		final int[] completed = { 0 };
+		final Handler<Void> completionHandler = new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				if (++completed[0] == connections) {
+					logger.debug("Opened " + connections + " connections to the inventory service.");
+				}
+			}
+		};
+		for (int i = 0; i < connections; i++) {
+			HttpClientRequest request = isClient.head(basePath, new Handler<HttpClientResponse>() {
+				
+				@Override
+				public void handle(HttpClientResponse response) {
+					response.bodyHandler(new Handler<Buffer>() {
+						
+						@Override
+						public void handle(Buffer buffer) {
+							completionHandler.handle(null);
+						}
+					});
+				}
+			});
+			request.exceptionHandler(new Handler<Throwable>() {
+				
+				@Override
+				public void handle(Throwable cause) {
+					logger.debug("Failed to open connection to the inventory service: " + cause.getMessage());
+				}
+			});
+			request.end();
+		}
+	}
+	
+	private void requestContent(final String operationName, String key, final String path, AsyncResultHandler<JsonObject> resultHandler) {
+		contentCache.get(key, new Handler<AsyncResultHandler<JsonObject>>() {
+			
+			@Override
+			public void handle(AsyncResultHandler<JsonObject> lookupHandler) {
+				guard.execute(operationName, true, new Handler<AsyncResultHandler<JsonObject>>() {
+					
+					@Override
+					public void handle(AsyncResultHandler<JsonObject> attemptHandler) {
+						requestJson(path, attemptHandler);
+					}
+				}, lookupHandler);
+			}
+		}, resultHandler);
+	}
+	
+	private void requestJson(String path, final AsyncResultHandler<JsonObject> handler) {
+		requestCount++;
+		if (++pendingRequests > peakPendingRequests) {
+			peakPendingRequests = pendingRequests;
+		}
+		final AsyncResultHandler<JsonObject> resultHandler = new AsyncResultHandler<JsonObject>() {
+			private boolean isComplete = false;
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> result) {
+				if (isComplete) return;
+				isComplete = true;
+				pendingRequests--;
+				handler.handle(result);
+			}
+		};
+		HttpClientRequest request = isClient.get(path, new Handler<HttpClientResponse>() {
 			
 			@Override
 			public void handle(final HttpClientResponse response) {
@@ -162,31 +281,17 @@ public class ISConnector {
 					
 					@Override
 					public void handle(final Buffer buffer) {
-						logger.debug("Received response for additional content request: " + buffer.toString());
+						logger.debug("Received response for content request: " + buffer.toString());
+						final boolean succeeded = response.statusCode() == 200;
+						final JsonObject result = succeeded ? new JsonObject(buffer.toString()) : null;
 						resultHandler.handle(new AsyncResult<JsonObject>() {
 							@Override
 							public boolean succeeded() {
-								return response.statusCode() == 200;
+								return succeeded;
 							}
 							
 							@Override
 							public JsonObject result() {
-								JsonObject result;
-								if (succeeded()) {
-									result = new JsonObject(buffer.toString());
-									String contentId = result.getString("contentId");
-									if (contentId != null) {
-										addReferenceToCache(processId, elementId, userId, contentId);
-									} else {
-										String cachedContentId = retrieveReferenceFromCache(processId, elementId, userId);
-										if (cachedContentId != null) {
-											logger.debug("Using cached content: " + cachedContentId);
-											result.putString("contentId", cachedContentId);
-										}
-									}
-								} else {
-									result = null;
-								}
 								return result;
 							}
 							
@@ -203,7 +308,37 @@ public class ISConnector {
 					}
 				});
 			}
-		}).end();
+		});
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(final Throwable cause) {
+				connectionErrorCount++;
+				resultHandler.handle(new AsyncResult<JsonObject>() {
+					@Override
+					public boolean succeeded() {
+						return false;
+					}
+					
+					@Override
+					public JsonObject result() {
+						return null;
+					}
+					
+					@Override
+					public boolean failed() {
+						return true;
+					}
+					
+					@Override
+					public Throwable cause() {
+						return new HttpException("Request to inventory service failed: " + cause.getMessage(), 502);
+					}
+				});
+			}
+		});
+		request.setTimeout(guard.getTimeout());
+		request.end();
 	}
 	
 	
@@ -224,4 +359,14 @@ public class ISConnector {
 				.append(userId)
 				.toString();
 	}
+	
+	static String generateCacheKey(String lookupType, String rootProcessId, String processId, String elementId, String userId) {
+		return new StringBuilder()
+				.append(lookupType).append("|")
+				.append(rootProcessId).append("|")
+				.append(processId).append("|")
+				.append(elementId).append("|")
+				.append(userId)
+				.toString();
+	}
 }
@@ -18,45 +18,54 @@ public class KKDConnector {
 	public static final String SERVICE_ID = "appsist:service:kkd";
 	
 	private final EventBus eventBus;
+	private final ServiceGuard guard;
 	
-	public KKDConnector(EventBus eventBus) {
+	public KKDConnector(EventBus eventBus, ServiceGuard guard) {
 		this.eventBus = eventBus;
+		this.guard = guard;
 	}
 	
 	public void getContactPopup(String sessionId, String token, String processId, final AsyncResultHandler<Popup> resultHandler) {
-		JsonObject request = new JsonObject()
+		final JsonObject request = new JsonObject()
 			.putString("sessionId", sessionId)
 			.putString("token", token)
 			.putString("processId", processId);
-		eventBus.send(SERVICE_ID + "#getContactPopup", request, new Handler<Message<JsonObject>>() {
-
+		guard.execute("getContactPopup", true, new Handler<AsyncResultHandler<Popup>>() {
+			
 			@Override
-			public void handle(Message<JsonObject> message) {
-				final JsonObject body = message.body();
-				resultHandler.handle(new AsyncResult<Popup>() {
-					
-					@Override
-					public boolean succeeded() {
-						return "ok".equals(body.getString("status"));
-					}
-					
-					@Override
-					public Popup result() {
-						return succeeded() ? new Popup(body.getObject("popup")) : null;
-					}
-					
-					@Override
-					public boolean failed() {
-						return !succeeded();
-					}
+			public void handle(final AsyncResultHandler<Popup> attemptHandler) {
+				eventBus.sendWithTimeout(SERVICE_ID + "#getContactPopup", request, guard.getTimeout(), new Handler<AsyncResult<Message<JsonObject>>>() {
 					
 					@Override
-					public Throwable cause() {
-						return failed() ? new HttpException(body.getString("message"), body.getInteger("code")) : null;
+					public void handle(final AsyncResult<Message<JsonObject>> reply) {
+						final JsonObject body = reply.succeeded() ? reply.result().body() : null;
+						attemptHandler.handle(new AsyncResult<Popup>() {
+							
+							@Override
+							public boolean succeeded() {
+								return body != null && "ok".equals(body.getString("status"));
+							}
+							
+							@Override
+							public Popup result() {
+								return succeeded() ? new Popup(body.getObject("popup")) : null;
+							}
+							
+							@Override
+							public boolean failed() {
+								return !succeeded();
+							}
+							
+							@Override
+							public Throwable cause() {
+								if (succeeded()) return null;
+								return body != null ? new HttpException(body.getString("message"), body.getInteger("code")) : reply.cause();
+							}
+						});
 					}
 				});
 			}
-		});
+		}, resultHandler);
 	}
 
 }
@@ -0,0 +1,172 @@
+package de.appsist.service.ps.connector;
+
+import java.util.Random;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.pki.connector.HttpException;
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Guard for the operations performed on a backend service.
+ * Each attempt is limited by a deadline, idempotent operations are retried with an exponential backoff and jitter, and a circuit breaker rejects operations while the service is unhealthy.
+ * Failures reported to the caller are always {@link HttpException}s: <code>504</code> if the deadline has passed, <code>503</code> if the circuit breaker is open.
+ * Failures with a status code below 500 are considered answers of a healthy service: they are neither retried nor counted by the circuit breaker.
+ * The latency of each operation, including all retries, is recorded in the connector metrics.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class ServiceGuard {
+	private static final Logger logger = LoggerFactory.getLogger(ServiceGuard.class);
+	private static final Random random = new Random();
+	
+	private final Vertx vertx;
+	private final String serviceName;
+	private final long timeout;
+	private final int maxRetries;
+	private final long retryDelay;
+	private final CircuitBreaker circuitBreaker;
+	private long timeoutCount;
+	private long retryCount;
+	
+	/**
+	 * Creates a guard.
+	 * @param vertx Vert.x instance.
+	 * @param serviceName Name of the guarded service, used for logging and status reports.
+	 * @param config Configuration with the fields <code>timeout</code> (ms), <code>retries</code>, <code>retryDelay</code> (ms), <code>failureThreshold</code> and <code>resetTimeout</code> (ms).
+	 */
+	public ServiceGuard(Vertx vertx, String serviceName, JsonObject config) {
+		this.vertx = vertx;
+		this.serviceName = serviceName;
+		this.timeout = config.getLong("timeout", 5000);
+		this.maxRetries = config.getInteger("retries", 2);
+		this.retryDelay = config.getLong("retryDelay", 100);
+		this.circuitBreaker = new CircuitBreaker(config.getInteger("failureThreshold", 5), config.getLong("resetTimeout", 30000));
+	}
+	
+	public String getServiceName() {
+		return serviceName;
+	}
+	
+	/**
+	 * Returns the deadline for a single attempt.
+	 * @return Timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+	
+	/**
+	 * Executes an operation.
+	 * @param operationName Name of the operation, used for metrics.
+	 * @param isIdempotent If <code>true</code>, the operation is retried on failure.
+	 * @param operation Handler performing the operation. It receives the handler to pass the result to and is called once for each attempt.
+	 * @param resultHandler Handler for the result of the operation.
+	 */
+	public <T> void execute(String operationName, boolean isIdempotent, Handler<AsyncResultHandler<T>> operation, AsyncResultHandler<T> resultHandler) {
+		attempt(isIdempotent ? maxRetries : 0, 0, operation, Metrics.timed(serviceName, operationName, resultHandler));
+	}
+	
+	/**
+	 * Returns the state of the guard.
+	 * @return JSON object with the state of the circuit breaker and the counters of the guard.
+	 */
+	public JsonObject asJson() {
+		return circuitBreaker.asJson()
+			.putNumber("timeouts", timeoutCount)
+			.putNumber("retries", retryCount);
+	}
+	
+	private <T> void attempt(final int retriesLeft, final int attemptNo, final Handler<AsyncResultHandler<T>> operation, final AsyncResultHandler<T> resultHandler) {
+		if (!circuitBreaker.allowRequest()) {
+			resultHandler.handle(new Failure<T>(new HttpException("Service " + serviceName + " is currently not available.", 503)));
+			return;
+		}
+		final boolean[] isComplete = { false };
+		final long timerId = vertx.setTimer(timeout, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				if (isComplete[0]) return;
+				isComplete[0] = true;
+				timeoutCount++;
+				handleFailure(retriesLeft, attemptNo, operation, resultHandler, new Failure<T>(new HttpException("Request to service " + serviceName + " timed out.", 504)));
+			}
+		});
+		operation.handle(new AsyncResultHandler<T>() {
+			
+			@Override
+			public void handle(AsyncResult<T> result) {
+				if (isComplete[0]) return; // Deadline has passed.
+				isComplete[0] = true;
+				vertx.cancelTimer(timerId);
+				if (result.succeeded() || !isServiceFailure(result.cause())) {
+					circuitBreaker.recordSuccess();
+					resultHandler.handle(result);
+				} else {
+					handleFailure(retriesLeft, attemptNo, operation, resultHandler, result);
+				}
+			}
+		});
+	}
+	
+	private <T> void handleFailure(final int retriesLeft, final int attemptNo, final Handler<AsyncResultHandler<T>> operation, final AsyncResultHandler<T> resultHandler, AsyncResult<T> failure) {
+		circuitBreaker.recordFailure();
+		if (retriesLeft <= 0 || circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+			logger.debug("Request to service " + serviceName + " failed: " + failure.cause().getMessage());
+			resultHandler.handle(failure);
+			return;
+		}
+		retryCount++;
+		long backoff = retryDelay << attemptNo;
+		long delay = Math.max(1, backoff / 2 + (long) (random.nextDouble() * backoff));
+		vertx.setTimer(delay, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				attempt(retriesLeft - 1, attemptNo + 1, operation, resultHandler);
+			}
+		});
+	}
+	
+	private static boolean isServiceFailure(Throwable cause) {
+		return !(cause instanceof HttpException) || ((HttpException) cause).getStatusCode() >= 500;
+	}
+	
+	private static class Failure<T> implements AsyncResult<T> {
+		private final Throwable cause;
+		
+		Failure(Throwable cause) {
+			this.cause = cause;
+		}
+		
+		@Override
+		public T result() {
+			return null;
+		}
+		
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+		
+		@Override
+		public boolean succeeded() {
+			return false;
+		}
+		
+		@Override
+		public boolean failed() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package de.appsist.service.ps.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Histogram of latencies with fixed, logarithmic buckets.
+ * The bucket bounds grow by a factor of 2^(1/4) from 100 microseconds to 60 seconds, hence percentiles are accurate to about 19%. Larger values are counted in an overflow bucket.
+ * The histogram is thread safe, it may be shared between verticle instances.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class LatencyHistogram {
+	private static final long[] BOUNDS; // Upper bounds of the buckets in microseconds.
+	
+	static {
+		List<Long> bounds = new ArrayList<>();
+		for (double bound = 100d; bound < 60000000d; bound *= Math.pow(2d, 0.25d)) {
+			bounds.add(Math.round(bound));
+		}
+		bounds.add(60000000l);
+		BOUNDS = new long[bounds.size()];
+		for (int i = 0; i < BOUNDS.length; i++) {
+			BOUNDS[i] = bounds.get(i);
+		}
+	}
+	
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong sum; // Microseconds.
+	private final AtomicLong max; // Microseconds.
+	private final AtomicLong errorCount;
+	
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BOUNDS.length + 1);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+		this.errorCount = new AtomicLong();
+	}
+	
+	/**
+	 * Records the duration of a successful operation.
+	 * @param startTime Start of the operation as returned by {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startTime) {
+		recordSince(startTime, false);
+	}
+	
+	/**
+	 * Records the duration of an operation.
+	 * @param startTime Start of the operation as returned by {@link System#nanoTime()}.
+	 * @param isError If <code>true</code>, the operation is counted as error as well.
+	 */
+	public void recordSince(long startTime, boolean isError) {
+		record((System.nanoTime() - startTime) / 1000l, isError);
+	}
+	
+	/**
+	 * Records a duration.
+	 * @param duration Duration in microseconds.
+	 * @param isError If <code>true</code>, the operation is counted as error as well.
+	 */
+	public void record(long duration, boolean isError) {
+		if (duration < 0) duration = 0;
+		buckets.incrementAndGet(bucketIndex(duration));
+		count.incrementAndGet();
+		sum.addAndGet(duration);
+		long currentMax;
+		while (duration > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, duration)) break;
+		}
+		if (isError) {
+			errorCount.incrementAndGet();
+		}
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+	
+	/**
+	 * Returns the sum of all recorded durations.
+	 * @return Sum in microseconds.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+	
+	/**
+	 * Returns the largest recorded duration.
+	 * @return Maximum in microseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns an upper estimate for a percentile of the recorded durations.
+	 * @param quantile Quantile, e.g., <code>0.95</code>.
+	 * @return Upper bound of the bucket containing the percentile in microseconds, but not more than the largest recorded duration. <code>0</code> if nothing has been recorded.
+	 */
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		long currentMax = max.get();
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(BOUNDS[i], currentMax);
+			}
+		}
+		return currentMax;
+	}
+	
+	/**
+	 * Returns the percentiles and counters of the histogram.
+	 * @return JSON object with durations in milliseconds.
+	 */
+	public JsonObject asJson() {
+		return new JsonObject()
+			.putNumber("count", getCount())
+			.putNumber("errors", getErrorCount())
+			.putNumber("p50", getPercentile(0.5d) / 1000d)
+			.putNumber("p95", getPercentile(0.95d) / 1000d)
+			.putNumber("p99", getPercentile(0.99d) / 1000d)
+			.putNumber("max", getMax() / 1000d);
+	}
+	
+	private static int bucketIndex(long duration) {
+		int low = 0;
+		int high = BOUNDS.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (BOUNDS[mid] < duration) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,287 @@
+package de.appsist.service.ps.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+
+/**
+ * Latency metrics of the service.
+ * The metrics are kept per JVM, hence all verticle instances record to and report the same histograms. They are reported in the Prometheus text exposition format, each histogram as summary with the quantiles 0.5, 0.95 and 0.99, a gauge for the maximum and a counter for errors.
+ * In addition, the number of assistance steps skipped because a newer step of the same session superseded them, the number of navigation requests merged with an identical pending request, the number of sessions evicted or expired, the hits, misses and coalesced lookups of the content cache and the number of contentSeen events sent and merged are counted.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public final class Metrics {
+	private static final double[] QUANTILES = { 0.5d, 0.95d, 0.99d };
+	
+	private static final Family HTTP_REQUESTS = new Family("psd_http_request", "HTTP requests by route", "route");
+	private static final Family CONNECTOR_CALLS = new Family("psd_connector_call", "calls to other services by service and operation", "service", "operation");
+	private static final Family PKI_EVENTS = new Family("psd_pki_event", "handling of process events until the resulting step has been displayed or the resulting request has been answered, by event type", "event");
+	private static final Family PKI_EVENT_DISPATCH = new Family("psd_pki_event_dispatch", "handling of process events until the resulting requests have been sent, by event type", "event");
+	private static final Family[] FAMILIES = { HTTP_REQUESTS, CONNECTOR_CALLS, PKI_EVENTS, PKI_EVENT_DISPATCH };
+	private static final AtomicLong SKIPPED_RENDERS = new AtomicLong();
+	private static final AtomicLong DUPLICATE_COMMANDS = new AtomicLong();
+	private static final AtomicLong SESSION_EVICTIONS = new AtomicLong();
+	private static final AtomicLong SESSION_EXPIRATIONS = new AtomicLong();
+	private static final AtomicLong CONTENT_CACHE_HITS = new AtomicLong();
+	private static final AtomicLong CONTENT_CACHE_MISSES = new AtomicLong();
+	private static final AtomicLong CONTENT_CACHE_COALESCED = new AtomicLong();
+	private static final AtomicLong CONTENT_SEEN_SENT = new AtomicLong();
+	private static final AtomicLong CONTENT_SEEN_MERGED = new AtomicLong();
+	private static final AtomicLong CONTENT_SEEN_BATCHES = new AtomicLong();
+	
+	private Metrics() {
+		// Static registry.
+	}
+	
+	/**
+	 * Returns the histogram for the requests of a HTTP route.
+	 * @param route Route pattern, e.g., <code>/navigate/next</code>.
+	 * @return Histogram for the route.
+	 */
+	public static LatencyHistogram httpRequest(String route) {
+		return HTTP_REQUESTS.histogram(route);
+	}
+	
+	/**
+	 * Returns the histogram for an operation of another service.
+	 * @param service Name of the service, e.g., <code>pki</code>.
+	 * @param operation Name of the operation.
+	 * @return Histogram for the operation.
+	 */
+	public static LatencyHistogram connectorCall(String service, String operation) {
+		return CONNECTOR_CALLS.histogram(service, operation);
+	}
+	
+	/**
+	 * Returns the histogram for the handling of a process event, recorded when the resulting step has been displayed or the resulting request has been answered.
+	 * @param event Type of the event, e.g., <code>task</code>.
+	 * @return Histogram for the event type.
+	 */
+	public static LatencyHistogram pkiEvent(String event) {
+		return PKI_EVENTS.histogram(event);
+	}
+	
+	/**
+	 * Counts an assistance step which has not been displayed because a newer step of the same session superseded it.
+	 */
+	public static void countSkippedRender() {
+		SKIPPED_RENDERS.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of assistance steps skipped because a newer step of the same session superseded them.
+	 * @return Number of skipped steps.
+	 */
+	public static long getSkippedRenders() {
+		return SKIPPED_RENDERS.get();
+	}
+	
+	/**
+	 * Counts a navigation request which has been answered with the response of an identical pending request of the same session, or which has been ignored as the session has already left the element.
+	 */
+	public static void countDuplicateCommand() {
+		DUPLICATE_COMMANDS.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a session evicted from the session store as the maximum number of sessions has been reached.
+	 */
+	public static void countSessionEviction() {
+		SESSION_EVICTIONS.incrementAndGet();
+	}
+	
+	/**
+	 * Counts sessions removed from the session store as they were idle for longer than the time to live.
+	 * @param sessions Number of expired sessions.
+	 */
+	public static void countSessionExpirations(int sessions) {
+		SESSION_EXPIRATIONS.addAndGet(sessions);
+	}
+	
+	/**
+	 * Counts a content lookup answered from the content cache.
+	 */
+	public static void countContentCacheHit() {
+		CONTENT_CACHE_HITS.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a content lookup performed as the result was not cached.
+	 */
+	public static void countContentCacheMiss() {
+		CONTENT_CACHE_MISSES.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a content lookup answered by an identical lookup already in progress.
+	 */
+	public static void countCoalescedContentLookup() {
+		CONTENT_CACHE_COALESCED.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a message with contentSeen events sent to the content navigation service.
+	 * @param events Number of events in the message.
+	 */
+	public static void countContentSeenBatch(int events) {
+		CONTENT_SEEN_SENT.addAndGet(events);
+		CONTENT_SEEN_BATCHES.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a contentSeen event merged with an identical event pending to be sent.
+	 */
+	public static void countMergedContentSeen() {
+		CONTENT_SEEN_MERGED.incrementAndGet();
+	}
+	
+	/**
+	 * Wraps the result handler of a call to another service. The call is recorded when the result is received, failed results are counted as errors.
+	 * @param service Name of the service.
+	 * @param operation Name of the operation.
+	 * @param resultHandler Handler for the result of the call.
+	 * @return Handler to pass to the connector.
+	 */
+	public static <T> AsyncResultHandler<T> timed(String service, String operation, final AsyncResultHandler<T> resultHandler) {
+		final LatencyHistogram histogram = connectorCall(service, operation);
+		final long startTime = System.nanoTime();
+		return new AsyncResultHandler<T>() {
+			
+			@Override
+			public void handle(AsyncResult<T> result) {
+				histogram.recordSince(startTime, result.failed());
+				resultHandler.handle(result);
+			}
+		};
+	}
+	
+	/**
+	 * Wraps the handler dispatching a process event. The event is recorded when the handler returns, i.e., when the requests resulting from the event have been sent but not answered. Exceptions are counted as errors.
+	 * @param event Type of the event.
+	 * @param handler Handler to wrap.
+	 * @return Handler recording the time from its creation to the return of the wrapped handler.
+	 */
+	public static <T> Handler<T> timedEvent(String event, final Handler<T> handler) {
+		final LatencyHistogram histogram = PKI_EVENT_DISPATCH.histogram(event);
+		final long startTime = System.nanoTime();
+		return new Handler<T>() {
+			
+			@Override
+			public void handle(T value) {
+				boolean isError = true;
+				try {
+					handler.handle(value);
+					isError = false;
+				} finally {
+					histogram.recordSince(startTime, isError);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Renders all metrics in the Prometheus text exposition format.
+	 * @return Text to serve with content type <code>text/plain; version=0.0.4</code>.
+	 */
+	public static String scrape() {
+		StringBuilder builder = new StringBuilder(4096);
+		for (Family family : FAMILIES) {
+			family.render(builder);
+		}
+		renderCounter(builder, "psd_skipped_renders_total", "Assistance steps superseded by a newer step of the same session before their display.", SKIPPED_RENDERS);
+		renderCounter(builder, "psd_duplicate_commands_total", "Navigation requests merged with an identical pending request of the same session or repeated for an element already left.", DUPLICATE_COMMANDS);
+		renderCounter(builder, "psd_session_evictions_total", "Sessions evicted from the session store as the maximum number of sessions has been reached.", SESSION_EVICTIONS);
+		renderCounter(builder, "psd_session_expirations_total", "Sessions removed from the session store as they were idle for longer than the time to live.", SESSION_EXPIRATIONS);
+		renderCounter(builder, "psd_content_cache_hits_total", "Content lookups answered from the content cache.", CONTENT_CACHE_HITS);
+		renderCounter(builder, "psd_content_cache_misses_total", "Content lookups performed at the inventory service as the result was not cached.", CONTENT_CACHE_MISSES);
+		renderCounter(builder, "psd_content_cache_coalesced_total", "Content lookups answered by an identical lookup already in progress.", CONTENT_CACHE_COALESCED);
+		renderCounter(builder, "psd_content_seen_sent_total", "ContentSeen events sent to the content navigation service, counting each event of a batch.", CONTENT_SEEN_SENT);
+		renderCounter(builder, "psd_content_seen_merged_total", "ContentSeen events merged with an identical pending event.", CONTENT_SEEN_MERGED);
+		renderCounter(builder, "psd_content_seen_batches_total", "Messages with contentSeen events sent to the content navigation service.", CONTENT_SEEN_BATCHES);
+		return builder.toString();
+	}
+	
+	private static void renderCounter(StringBuilder builder, String name, String help, AtomicLong counter) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(" counter\n");
+		builder.append(name).append(' ').append(counter.get()).append('\n');
+	}
+	
+	/**
+	 * Histograms of the same kind, distinguished by their labels.
+	 */
+	private static class Family {
+		final String name;
+		final String description;
+		final String[] labelNames;
+		final ConcurrentMap<String, LatencyHistogram> histograms; // <rendered labels, histogram>
+		
+		Family(String name, String description, String... labelNames) {
+			this.name = name;
+			this.description = description;
+			this.labelNames = labelNames;
+			this.histograms = new ConcurrentHashMap<>();
+		}
+		
+		LatencyHistogram histogram(String... labelValues) {
+			StringBuilder labels = new StringBuilder();
+			for (int i = 0; i < labelNames.length; i++) {
+				if (i > 0) labels.append(',');
+				labels.append(labelNames[i]).append("=\"").append(escape(labelValues[i])).append('"');
+			}
+			String key = labels.toString();
+			LatencyHistogram histogram = histograms.get(key);
+			if (histogram == null) {
+				LatencyHistogram newHistogram = new LatencyHistogram();
+				histogram = histograms.putIfAbsent(key, newHistogram);
+				if (histogram == null) histogram = newHistogram;
+			}
+			return histogram;
+		}
+		
+		void render(StringBuilder builder) {
+			Map<String, LatencyHistogram> sorted = new TreeMap<>(histograms);
+			String summary = name + "_duration_seconds";
+			builder.append("# HELP ").append(summary).append(" Latency of ").append(description).append(".\n");
+			builder.append("# TYPE ").append(summary).append(" summary\n");
+			for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+				String labels = entry.getKey();
+				LatencyHistogram histogram = entry.getValue();
+				for (double quantile : QUANTILES) {
+					builder.append(summary).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+						.append(seconds(histogram.getPercentile(quantile))).append('\n');
+				}
+				builder.append(summary).append("_sum{").append(labels).append("} ").append(seconds(histogram.getSum())).append('\n');
+				builder.append(summary).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+			}
+			String max = name + "_duration_seconds_max";
+			builder.append("# HELP ").append(max).append(" Maximum latency of ").append(description).append(".\n");
+			builder.append("# TYPE ").append(max).append(" gauge\n");
+			for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+				builder.append(max).append('{').append(entry.getKey()).append("} ").append(seconds(entry.getValue().getMax())).append('\n');
+			}
+			String errors = name + "_errors_total";
+			builder.append("# HELP ").append(errors).append(" Failed ").append(description).append(".\n");
+			builder.append("# TYPE ").append(errors).append(" counter\n");
+			for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+				builder.append(errors).append('{').append(entry.getKey()).append("} ").append(entry.getValue().getErrorCount()).append('\n');
+			}
+		}
+	}
+	
+	private static String seconds(long microseconds) {
+		return String.format(Locale.ROOT, "%.6f", microseconds / 1000000d);
+	}
+	
+	private static String escape(String labelValue) {
+		if (labelValue == null) return "";
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,73 @@
+package de.appsist.service.ps.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.vertx.java.core.json.JsonArray;
+
+/**
+ * Log keeping the slowest finished step traces.
+ * The log is kept per JVM, hence it contains the traces of all verticle instances. Access is synchronized.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public final class SlowTraceLog {
+	private static final Comparator<StepTrace> BY_DURATION = new Comparator<StepTrace>() {
+		
+		@Override
+		public int compare(StepTrace first, StepTrace second) {
+			return Long.compare(first.getDuration(), second.getDuration());
+		}
+	};
+	
+	private static final PriorityQueue<StepTrace> traces = new PriorityQueue<>(16, BY_DURATION); // Fastest trace first.
+	private static int capacity = 20;
+	
+	private SlowTraceLog() {
+		// Static log.
+	}
+	
+	/**
+	 * Sets the number of traces to keep.
+	 * @param capacity Maximum number of traces. If <code>0</code>, no traces are kept.
+	 */
+	public static synchronized void setCapacity(int capacity) {
+		SlowTraceLog.capacity = Math.max(0, capacity);
+		while (traces.size() > SlowTraceLog.capacity) {
+			traces.poll();
+		}
+	}
+	
+	/**
+	 * Adds a finished trace if it is slower than the fastest trace kept.
+	 * @param trace Finished trace.
+	 */
+	static synchronized void offer(StepTrace trace) {
+		if (capacity == 0) return;
+		if (traces.size() < capacity) {
+			traces.add(trace);
+		} else if (traces.peek().getDuration() < trace.getDuration()) {
+			traces.poll();
+			traces.add(trace);
+		}
+	}
+	
+	/**
+	 * Returns the traces kept, slowest first.
+	 * @return JSON array of traces.
+	 */
+	public static JsonArray asJson() {
+		List<StepTrace> sorted;
+		synchronized (SlowTraceLog.class) {
+			sorted = new ArrayList<>(traces);
+		}
+		Collections.sort(sorted, Collections.reverseOrder(BY_DURATION));
+		JsonArray json = new JsonArray();
+		for (StepTrace trace : sorted) {
+			json.addObject(trace.asJson());
+		}
+		return json;
+	}
+}
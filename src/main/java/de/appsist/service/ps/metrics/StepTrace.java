@@ -0,0 +1,162 @@
+package de.appsist.service.ps.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Trace of a single assistance step, from the event or request triggering the step to its display at the client.
+ * Each stage of the callback chain records a span. When the trace is finished, it is offered to the {@link SlowTraceLog}, later spans are ignored.
+ * A trace is not thread safe and has to be used from the event loop of the verticle handling the step.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class StepTrace {
+	private final String trigger;
+	private final String sessionId;
+	private final long startTime; // System.nanoTime()
+	private final long timestamp; // System.currentTimeMillis()
+	private final List<Span> spans;
+	private String processId;
+	private String elementId;
+	private long duration = -1; // Microseconds, -1 while the trace is running.
+	private boolean succeeded;
+	private LatencyHistogram eventHistogram; // Histogram for the process event handled with the step, if any.
+	private long eventStartTime; // System.nanoTime()
+	
+	/**
+	 * Creates and starts a trace.
+	 * @param trigger Event or request triggering the step, e.g., <code>task</code> or <code>/navigate/next</code>.
+	 * @param sessionId ID of the session the step is displayed for.
+	 */
+	public StepTrace(String trigger, String sessionId) {
+		this.trigger = trigger;
+		this.sessionId = sessionId;
+		this.startTime = System.nanoTime();
+		this.timestamp = System.currentTimeMillis();
+		this.spans = new ArrayList<>();
+	}
+	
+	/**
+	 * Sets the process element displayed with the step.
+	 * @param processId ID of the process the element belongs to.
+	 * @param elementId ID of the element.
+	 */
+	public void setElement(String processId, String elementId) {
+		this.processId = processId;
+		this.elementId = elementId;
+	}
+	
+	/**
+	 * Records the handling of a process event with the step. The time from now until the trace is finished is recorded in the given histogram, a failed step is counted as error.
+	 * @param histogram Histogram for the type of the event.
+	 */
+	public void recordEvent(LatencyHistogram histogram) {
+		this.eventHistogram = histogram;
+		this.eventStartTime = System.nanoTime();
+	}
+	
+	/**
+	 * Starts a span for a stage of the step.
+	 * @param name Name of the stage.
+	 * @return Span to end when the stage is complete.
+	 */
+	public Span startSpan(String name) {
+		Span span = new Span(name, System.nanoTime());
+		if (!isFinished()) {
+			spans.add(span);
+		}
+		return span;
+	}
+	
+	/**
+	 * Finishes the trace. Only the first call has an effect.
+	 * @param succeeded <code>true</code> if the step has been displayed, <code>false</code> if it failed.
+	 */
+	public void finish(boolean succeeded) {
+		if (isFinished()) return;
+		this.duration = (System.nanoTime() - startTime) / 1000l;
+		this.succeeded = succeeded;
+		if (eventHistogram != null) {
+			eventHistogram.recordSince(eventStartTime, !succeeded);
+		}
+		SlowTraceLog.offer(this);
+	}
+	
+	public boolean isFinished() {
+		return duration >= 0;
+	}
+	
+	public String getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * Returns the time passed since the trace has been started.
+	 * @return Time in milliseconds.
+	 */
+	public long getElapsedTime() {
+		return (System.nanoTime() - startTime) / 1000000l;
+	}
+	
+	/**
+	 * Returns the duration of the finished trace.
+	 * @return Duration in microseconds, <code>-1</code> if the trace is still running.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+	
+	/**
+	 * Returns the trace with all spans recorded until it has been finished.
+	 * @return JSON object with times in milliseconds relative to the start of the trace.
+	 */
+	public JsonObject asJson() {
+		JsonArray spansJson = new JsonArray();
+		for (Span span : spans) {
+			JsonObject spanJson = new JsonObject()
+				.putString("name", span.name)
+				.putNumber("start", (span.startTime - startTime) / 1000000d);
+			if (span.duration >= 0) {
+				spanJson.putNumber("duration", span.duration / 1000d);
+				spanJson.putBoolean("succeeded", span.succeeded);
+			}
+			spansJson.addObject(spanJson);
+		}
+		return new JsonObject()
+			.putString("trigger", trigger)
+			.putString("sessionId", sessionId)
+			.putString("processId", processId)
+			.putString("elementId", elementId)
+			.putNumber("timestamp", timestamp)
+			.putNumber("duration", duration / 1000d)
+			.putBoolean("succeeded", succeeded)
+			.putArray("spans", spansJson);
+	}
+	
+	/**
+	 * Stage of an assistance step.
+	 */
+	public class Span {
+		private final String name;
+		private final long startTime;
+		private long duration = -1; // Microseconds.
+		private boolean succeeded;
+		
+		private Span(String name, long startTime) {
+			this.name = name;
+			this.startTime = startTime;
+		}
+		
+		/**
+		 * Ends the span. Only the first call has an effect, spans ending after the trace has been finished are not recorded.
+		 * @param succeeded <code>true</code> if the stage completed successfully.
+		 */
+		public void end(boolean succeeded) {
+			if (duration >= 0 || isFinished()) return;
+			this.duration = (System.nanoTime() - startTime) / 1000l;
+			this.succeeded = succeeded;
+		}
+	}
+}
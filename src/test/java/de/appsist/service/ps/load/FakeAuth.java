@@ -0,0 +1,46 @@
+package de.appsist.service.ps.load;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.auth.connector.AuthServiceConnector;
+
+/**
+ * Stand-in for the authentication service.
+ * Accepts every token, the user ID is derived from the session ID.
+ * The requests are expected to carry the session ID and token in the fields <code>sessionId</code> and <code>token</code>, as sent by the authentication service connector.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakeAuth extends StandIn {
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 */
+	public FakeAuth(Vertx vertx, JsonObject config) {
+		super(vertx, "auth", config);
+	}
+	
+	/**
+	 * Registers the stand-in at the event bus.
+	 */
+	public void register() {
+		vertx.eventBus().registerHandler(AuthServiceConnector.SERVICE_ID, new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				String sessionId = message.body().getString("sessionId");
+				JsonObject session = new JsonObject()
+					.putString("id", sessionId)
+					.putString("token", message.body().getString("token"))
+					.putString("userId", "user-" + sessionId);
+				reply(message, new JsonObject()
+					.putString("status", "ok")
+					.putObject("session", session));
+			}
+		});
+	}
+}
@@ -0,0 +1,66 @@
+package de.appsist.service.ps.load;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.RouteMatcher;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Stand-in for the inventory service (IHS).
+ * Every task, call activity and element has content, the content IDs are derived from the requested element.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakeIhs extends StandIn {
+	private final String basePath;
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 * @param basePath Base path of the inventory service as configured for the performance support service (<code>services.paths.ihs</code>).
+	 */
+	public FakeIhs(Vertx vertx, JsonObject config, String basePath) {
+		super(vertx, "ihs", config);
+		this.basePath = basePath;
+	}
+	
+	/**
+	 * Adds the routes of the inventory service to the given route matcher.
+	 * @param routeMatcher Route matcher of the HTTP server shared by the stand-ins.
+	 */
+	public void registerRoutes(RouteMatcher routeMatcher) {
+		routeMatcher.get(basePath + "/contentForTask", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				String elementId = request.params().get("elementId");
+				respond(request, new JsonObject().putString("contentId", "content-" + elementId));
+			}
+		});
+		routeMatcher.get(basePath + "/contentForActivity", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				String calledProcess = request.params().get("calledProcess");
+				respond(request, new JsonObject().putString("contentId", "content-" + calledProcess));
+			}
+		});
+		routeMatcher.get(basePath + "/additionalContent", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				String elementId = request.params().get("elementId");
+				respond(request, new JsonObject().putString("contentId", "additional-" + elementId));
+			}
+		});
+		// Used to pre-warm the connection pool.
+		routeMatcher.head(basePath, new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				request.response().end();
+			}
+		});
+	}
+}
@@ -0,0 +1,61 @@
+package de.appsist.service.ps.load;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.connector.IIDConnector;
+
+/**
+ * Stand-in for the intelligent interaction device service (IID).
+ * Accepts all requests of the IID connector and reports displayed assistance steps to a listener, which acts as the client of the simulated worker.
+ * The requests are expected to name the requested operation in the field <code>action</code>, as sent by the IID connector.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakeIid extends StandIn {
+	private static final String DISPLAY_ASSISTANCE = "displayAssistance";
+	
+	private final Handler<String> displayListener;
+	private long displayCount;
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 * @param displayListener Listener called with the session ID when an assistance step has been displayed.
+	 */
+	public FakeIid(Vertx vertx, JsonObject config, Handler<String> displayListener) {
+		super(vertx, "iid", config);
+		this.displayListener = displayListener;
+	}
+	
+	/**
+	 * Registers the stand-in at the event bus.
+	 */
+	public void register() {
+		vertx.eventBus().registerHandler(IIDConnector.DEFAULT_ADDRESS, new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(final Message<JsonObject> message) {
+				final JsonObject request = message.body();
+				delay(new Handler<Void>() {
+					
+					@Override
+					public void handle(Void event) {
+						message.reply(new JsonObject().putString("status", "ok"));
+						if (DISPLAY_ASSISTANCE.equals(request.getString("action"))) {
+							displayCount++;
+							displayListener.handle(request.getString("sessionId"));
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	@Override
+	public JsonObject getStatus() {
+		return super.getStatus().putNumber("displayedSteps", displayCount);
+	}
+}
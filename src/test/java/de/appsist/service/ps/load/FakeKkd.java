@@ -0,0 +1,47 @@
+package de.appsist.service.ps.load;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.model.ContentBody;
+import de.appsist.service.iid.server.model.PopupBuilder;
+import de.appsist.service.ps.connector.KKDConnector;
+
+/**
+ * Stand-in for the contact service (KKD).
+ * Answers all requests with the same contact popup.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakeKkd extends StandIn {
+	private final JsonObject popup;
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 */
+	public FakeKkd(Vertx vertx, JsonObject config) {
+		super(vertx, "kkd", config);
+		PopupBuilder builder = new PopupBuilder();
+		builder.setTitle("Ansprechpartner");
+		builder.setBody(new ContentBody.Package("contacts-load"));
+		this.popup = builder.build().asJson();
+	}
+	
+	/**
+	 * Registers the stand-in at the event bus.
+	 */
+	public void register() {
+		vertx.eventBus().registerHandler(KKDConnector.SERVICE_ID + "#getContactPopup", new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				reply(message, new JsonObject()
+					.putString("status", "ok")
+					.putObject("popup", popup));
+			}
+		});
+	}
+}
@@ -0,0 +1,258 @@
+package de.appsist.service.ps.load;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.RouteMatcher;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Stand-in for the process knowledge service (PKI).
+ * Knows a single linear measure with the configured number of steps (<code>steps</code>). Every n-th step (<code>callActivityInterval</code>) is a call activity, all other steps are tasks.
+ * Process events are published on the event bus after the answer to the request causing them: A task or call activity event for each step, a completion event after the last step and a termination event when an instance is canceled.
+ * The REST paths, the event addresses and the representation of definitions, instances and events mirror the process knowledge service as expected by the PKI connector and have to be kept in line with the connector version in use.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakePki extends StandIn {
+	private static final String EVENT_ADDRESS_PREFIX = "appsist:event:";
+	private static final String TASK_EVENT = "processEvent:task";
+	private static final String CALL_ACTIVITY_EVENT = "processEvent:callActivity";
+	private static final String PROCESS_COMPLETE_EVENT = "processEvent:processComplete";
+	private static final String PROCESS_TERMINATE_EVENT = "processEvent:processTerminate";
+	private static final String ACTIVITY_PROCESS_ID = "load-activity";
+	
+	private final String basePath;
+	private final String measureId;
+	private final int steps;
+	private final int callActivityInterval;
+	private final Map<String, ProcessRun> runs; // <process instance id, run>
+	private long eventCount;
+	
+	/**
+	 * State of an instance of the measure.
+	 */
+	private static class ProcessRun {
+		final String instanceId;
+		final String sessionId;
+		final String userId;
+		int position; // Index of the current step, starting with 0.
+		
+		ProcessRun(String instanceId, String sessionId, String userId) {
+			this.instanceId = instanceId;
+			this.sessionId = sessionId;
+			this.userId = userId;
+		}
+	}
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 * @param basePath Base path of the process knowledge service as configured for the performance support service (<code>services.paths.pki</code>).
+	 * @param measureId ID of the measure the simulated workers are supported in.
+	 */
+	public FakePki(Vertx vertx, JsonObject config, String basePath, String measureId) {
+		super(vertx, "pki", config);
+		this.basePath = basePath;
+		this.measureId = measureId;
+		this.steps = config.getInteger("steps", 20);
+		this.callActivityInterval = config.getInteger("callActivityInterval", 5);
+		this.runs = new HashMap<>();
+	}
+	
+	/**
+	 * Returns the number of steps of the measure.
+	 * @return Number of steps.
+	 */
+	public int getSteps() {
+		return steps;
+	}
+	
+	/**
+	 * Adds the routes of the process knowledge service to the given route matcher.
+	 * @param routeMatcher Route matcher of the HTTP server shared by the stand-ins.
+	 */
+	public void registerRoutes(RouteMatcher routeMatcher) {
+		routeMatcher.get(basePath + "/processes/:processId", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				respond(request, createDefinition(request.params().get("processId")));
+			}
+		});
+		routeMatcher.post(basePath + "/processes/:processId/instantiate", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(final HttpServerRequest request) {
+				request.bodyHandler(new Handler<Buffer>() {
+					
+					@Override
+					public void handle(Buffer buffer) {
+						JsonObject body = buffer.length() > 0 ? new JsonObject(buffer.toString()) : new JsonObject();
+						ProcessRun run = new ProcessRun(UUID.randomUUID().toString(), body.getString("sessionId"), body.getString("userId"));
+						runs.put(run.instanceId, run);
+						respond(request, createInstance(run), publishStepEvent(run));
+					}
+				});
+			}
+		});
+		routeMatcher.get(basePath + "/instances/:instanceId", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				ProcessRun run = getRun(request);
+				if (run != null) respond(request, createInstance(run));
+			}
+		});
+		routeMatcher.get(basePath + "/instances/:instanceId/current", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				ProcessRun run = getRun(request);
+				if (run != null) respond(request, createElementInstance(run));
+			}
+		});
+		routeMatcher.post(basePath + "/instances/:instanceId/next", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				ProcessRun run = getRun(request);
+				if (run == null) return;
+				run.position++;
+				if (run.position < steps) {
+					respond(request, createElementInstance(run), publishStepEvent(run));
+				} else {
+					runs.remove(run.instanceId);
+					respond(request, createInstance(run), publishEvent(PROCESS_COMPLETE_EVENT, run, null));
+				}
+			}
+		});
+		routeMatcher.post(basePath + "/instances/:instanceId/confirm", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				ProcessRun run = getRun(request);
+				if (run != null) respond(request, createInstance(run));
+			}
+		});
+		routeMatcher.post(basePath + "/instances/:instanceId/cancel", new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				ProcessRun run = getRun(request);
+				if (run == null) return;
+				runs.remove(run.instanceId);
+				respond(request, new JsonObject(), publishEvent(PROCESS_TERMINATE_EVENT, run, null));
+			}
+		});
+	}
+	
+	@Override
+	public JsonObject getStatus() {
+		return super.getStatus()
+			.putNumber("activeInstances", runs.size())
+			.putNumber("events", eventCount);
+	}
+	
+	private ProcessRun getRun(HttpServerRequest request) {
+		ProcessRun run = runs.get(request.params().get("instanceId"));
+		if (run == null) {
+			request.response().setStatusCode(404).end();
+		}
+		return run;
+	}
+	
+	private boolean isCallActivity(int position) {
+		return callActivityInterval > 0 && (position + 1) % callActivityInterval == 0;
+	}
+	
+	private String getElementId(int position) {
+		return (isCallActivity(position) ? "activity-" : "task-") + (position + 1);
+	}
+	
+	private JsonObject createDefinition(String processId) {
+		JsonArray elements = new JsonArray();
+		if (measureId.equals(processId)) {
+			for (int i = 0; i < steps; i++) {
+				JsonObject element = new JsonObject()
+					.putString("id", getElementId(i))
+					.putString("type", isCallActivity(i) ? "callActivity" : "task")
+					.putString("label", "Schritt " + (i + 1));
+				if (isCallActivity(i)) {
+					element.putString("calledElement", ACTIVITY_PROCESS_ID);
+				}
+				elements.addObject(element);
+			}
+		}
+		return new JsonObject()
+			.putString("id", processId)
+			.putString("label", measureId.equals(processId) ? "Lasttest" : "Teilprozess")
+			.putArray("elements", elements);
+	}
+	
+	private JsonObject createInstance(ProcessRun run) {
+		return new JsonObject()
+			.putString("id", run.instanceId)
+			.putString("processId", measureId)
+			.putString("sessionId", run.sessionId)
+			.putString("userId", run.userId)
+			.putBoolean("completed", run.position >= steps);
+	}
+	
+	private JsonObject createElementInstance(ProcessRun run) {
+		return new JsonObject()
+			.putString("id", getElementId(run.position))
+			.putString("processId", measureId)
+			.putString("processInstanceId", run.instanceId)
+			.putString("type", isCallActivity(run.position) ? "callActivity" : "task")
+			.putString("label", "Schritt " + (run.position + 1));
+	}
+	
+	private Handler<Void> publishStepEvent(ProcessRun run) {
+		if (isCallActivity(run.position)) {
+			return publishEvent(CALL_ACTIVITY_EVENT, run, new JsonObject().putString("activityProcessId", ACTIVITY_PROCESS_ID));
+		} else {
+			return publishEvent(TASK_EVENT, run, null);
+		}
+	}
+	
+	/**
+	 * Creates a handler publishing a process event for the current state of the given run.
+	 * @param modelId Model ID of the event.
+	 * @param run Run to create event for.
+	 * @param additionalFields Fields to add to the event, may be <code>null</code>.
+	 * @return Handler publishing the event when called.
+	 */
+	private Handler<Void> publishEvent(final String modelId, ProcessRun run, JsonObject additionalFields) {
+		final JsonObject event = new JsonObject()
+			.putString("id", UUID.randomUUID().toString())
+			.putString("modelId", modelId)
+			.putString("sessionId", run.sessionId)
+			.putString("userId", run.userId)
+			.putString("processId", measureId)
+			.putString("processInstanceId", run.instanceId)
+			.putString("rootProcessId", measureId)
+			.putString("rootProcessInstanceId", run.instanceId);
+		if (!PROCESS_COMPLETE_EVENT.equals(modelId) && !PROCESS_TERMINATE_EVENT.equals(modelId)) {
+			event.putString("elementId", getElementId(run.position))
+				.putNumber("progress", (double) run.position / steps);
+		}
+		if (additionalFields != null) {
+			event.mergeIn(additionalFields);
+		}
+		return new Handler<Void>() {
+			
+			@Override
+			public void handle(Void nothing) {
+				eventCount++;
+				vertx.eventBus().publish(EVENT_ADDRESS_PREFIX + modelId, event);
+			}
+		};
+	}
+}
@@ -0,0 +1,63 @@
+package de.appsist.service.ps.load;
+
+import java.util.Random;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Stand-in for the user model service (BMD).
+ * Processes are mastered with the configured probability (<code>masteredRatio</code>).
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class FakeUserModel extends StandIn {
+	private static final String SERVICE_ID = "appsist:service:usermodel";
+	
+	private final double masteredRatio;
+	private final Random random;
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param config Configuration of the stand-in.
+	 */
+	public FakeUserModel(Vertx vertx, JsonObject config) {
+		super(vertx, "usermodel", config);
+		this.masteredRatio = config.getNumber("masteredRatio", 0).doubleValue();
+		this.random = new Random();
+	}
+	
+	/**
+	 * Registers the stand-in at the event bus.
+	 */
+	public void register() {
+		vertx.eventBus().registerHandler(SERVICE_ID + "#mastersProcess", new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				reply(message, new JsonObject()
+					.putString("status", "ok")
+					.putBoolean("mastered", isMastered()));
+			}
+		});
+		vertx.eventBus().registerHandler(SERVICE_ID + "#mastersProcesses", new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonObject mastered = new JsonObject();
+				for (Object processId : message.body().getArray("processIds")) {
+					mastered.putBoolean((String) processId, isMastered());
+				}
+				reply(message, new JsonObject()
+					.putString("status", "ok")
+					.putObject("mastered", mastered));
+			}
+		});
+	}
+	
+	private boolean isMastered() {
+		return random.nextDouble() < masteredRatio;
+	}
+}
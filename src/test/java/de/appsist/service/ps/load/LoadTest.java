@@ -0,0 +1,344 @@
+package de.appsist.service.ps.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.RouteMatcher;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+import org.vertx.java.platform.PlatformLocator;
+import org.vertx.java.platform.PlatformManager;
+import org.vertx.java.platform.Verticle;
+
+import de.appsist.service.ps.MainVerticle;
+import de.appsist.service.ps.metrics.LatencyHistogram;
+import de.appsist.service.ps.metrics.Metrics;
+
+/**
+ * Load test for the performance support service.
+ * Deploys the service in-process together with stand-ins for the services it depends on and drives the configured number of simulated workers through a measure.
+ * Throughput, step latencies and heap usage are logged and written as JSON (<code>resultFile</code>). Run with:
+ * <pre>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=de.appsist.service.ps.load.LoadTest [-Dexec.args=config.json]</pre>
+ * Without an argument, the configuration is read from <code>load-test.json</code> in the test resources. The configuration of the service (<code>psd</code>) determines the ports used, the stand-ins for PKI and IHS listen at the configured services port.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class LoadTest extends Verticle {
+	private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+	private static final String DEFAULT_CONFIG = "load-test.json";
+	private static final long RAMP_UP_TICK = 10;
+	private static final double MB = 1024d * 1024d;
+	
+	private JsonObject config;
+	private String measureId;
+	private int workerCount;
+	private long stepTimeout;
+	private HttpClient client;
+	private String basePath;
+	private FakePki pki;
+	private StandIn[] standIns;
+	private Map<String, SimulatedWorker> activeWorkers; // <session id, worker>
+	private Map<String, Integer> failures; // <failure, number of workers>
+	private LatencyHistogram firstStepLatency;
+	private LatencyHistogram stepLatency;
+	private int startedCount;
+	private int completedCount;
+	private long totalSteps;
+	private long startTime;
+	private long baselineHeap;
+	private long peakHeap;
+	private long rampUpTimerId;
+	private long samplingTimerId;
+	private long reportTimerId;
+	
+	@Override
+	public void start() {
+		config = container.config();
+		measureId = config.getString("measureId", "load-measure");
+		workerCount = config.getInteger("workers", 1000);
+		stepTimeout = config.getLong("stepTimeout", 30000);
+		activeWorkers = new HashMap<>();
+		failures = new HashMap<>();
+		firstStepLatency = new LatencyHistogram();
+		stepLatency = new LatencyHistogram();
+		
+		final JsonObject psdConfig = config.getObject("psd");
+		JsonObject servicesConfig = psdConfig.getObject("services");
+		JsonObject standInsConfig = config.getObject("standIns", new JsonObject());
+		pki = new FakePki(vertx, standInsConfig.getObject("pki", new JsonObject()), servicesConfig.getObject("paths").getString("pki"), measureId);
+		FakeIhs ihs = new FakeIhs(vertx, standInsConfig.getObject("ihs", new JsonObject()), servicesConfig.getObject("paths").getString("ihs"));
+		FakeIid iid = new FakeIid(vertx, standInsConfig.getObject("iid", new JsonObject()), new Handler<String>() {
+			
+			@Override
+			public void handle(String sessionId) {
+				SimulatedWorker worker = activeWorkers.get(sessionId);
+				if (worker != null) {
+					worker.onStepDisplayed();
+				}
+			}
+		});
+		FakeUserModel userModel = new FakeUserModel(vertx, standInsConfig.getObject("usermodel", new JsonObject()));
+		FakeKkd kkd = new FakeKkd(vertx, standInsConfig.getObject("kkd", new JsonObject()));
+		FakeAuth auth = new FakeAuth(vertx, standInsConfig.getObject("auth", new JsonObject()));
+		standIns = new StandIn[] {pki, ihs, iid, userModel, kkd, auth};
+		iid.register();
+		userModel.register();
+		kkd.register();
+		auth.register();
+		
+		RouteMatcher routeMatcher = new RouteMatcher();
+		pki.registerRoutes(routeMatcher);
+		ihs.registerRoutes(routeMatcher);
+		routeMatcher.noMatch(new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				logger.warn("No stand-in for request: " + request.method() + " " + request.uri());
+				request.response().setStatusCode(404).end();
+			}
+		});
+		vertx.createHttpServer()
+			.requestHandler(routeMatcher)
+			.listen(servicesConfig.getInteger("port"), servicesConfig.getString("host"), new Handler<AsyncResult<HttpServer>>() {
+				
+				@Override
+				public void handle(AsyncResult<HttpServer> listenRequest) {
+					if (listenRequest.failed()) {
+						abort("Failed to start stand-ins.", listenRequest.cause());
+						return;
+					}
+					deployService(psdConfig);
+				}
+			});
+	}
+	
+	private void deployService(final JsonObject psdConfig) {
+		container.deployVerticle(MainVerticle.class.getName(), psdConfig, new Handler<AsyncResult<String>>() {
+			
+			@Override
+			public void handle(AsyncResult<String> deployRequest) {
+				if (deployRequest.failed()) {
+					abort("Failed to deploy performance support service.", deployRequest.cause());
+					return;
+				}
+				JsonObject webserverConfig = psdConfig.getObject("webserver");
+				basePath = webserverConfig.getString("basePath");
+				client = vertx.createHttpClient()
+					.setHost("localhost")
+					.setPort(webserverConfig.getInteger("port"))
+					.setKeepAlive(true)
+					.setMaxPoolSize(config.getInteger("connections", 100));
+				// Give the HTTP server of the service time to bind.
+				vertx.setTimer(config.getLong("startDelay", 1000), new Handler<Long>() {
+					
+					@Override
+					public void handle(Long timerId) {
+						startWorkers();
+					}
+				});
+			}
+		});
+	}
+	
+	private void startWorkers() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		memory.gc();
+		baselineHeap = memory.getHeapMemoryUsage().getUsed();
+		peakHeap = baselineHeap;
+		samplingTimerId = vertx.setPeriodic(config.getLong("heapSamplingInterval", 500), new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+			}
+		});
+		reportTimerId = vertx.setPeriodic(config.getLong("reportInterval", 5000), new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				logger.info(String.format("%d of %d workers started, %d active, %d completed, %d failed, %d steps, step latency p95 %.1f ms.",
+					startedCount, workerCount, activeWorkers.size(), completedCount, getFailureCount(), totalSteps + getDisplayedSteps(), stepLatency.getPercentile(0.95d) / 1000d));
+			}
+		});
+		
+		final Handler<SimulatedWorker> completionHandler = new Handler<SimulatedWorker>() {
+			
+			@Override
+			public void handle(SimulatedWorker worker) {
+				activeWorkers.remove(worker.getSessionId());
+				totalSteps += worker.getDisplayedSteps();
+				if (worker.getFailure() != null) {
+					Integer count = failures.get(worker.getFailure());
+					failures.put(worker.getFailure(), count != null ? count + 1 : 1);
+				} else {
+					completedCount++;
+				}
+				if (completedCount + getFailureCount() == workerCount) {
+					finish();
+				}
+			}
+		};
+		// Workers are started evenly distributed over the ramp up period.
+		final long rampUp = Math.max(config.getLong("rampUp", 10) * 1000, 1);
+		startTime = System.nanoTime();
+		rampUpTimerId = vertx.setPeriodic(RAMP_UP_TICK, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				long elapsed = (System.nanoTime() - startTime) / 1000000;
+				long due = Math.min(workerCount, (elapsed * workerCount) / rampUp + 1);
+				while (startedCount < due) {
+					String sessionId = "load-" + startedCount;
+					SimulatedWorker worker = new SimulatedWorker(vertx, client, basePath, sessionId, firstStepLatency, stepLatency, stepTimeout, completionHandler);
+					activeWorkers.put(sessionId, worker);
+					startedCount++;
+					worker.start(measureId, pki.getSteps());
+				}
+				if (startedCount == workerCount) {
+					vertx.cancelTimer(timerId);
+				}
+			}
+		});
+	}
+	
+	private int getFailureCount() {
+		int count = 0;
+		for (Integer failureCount : failures.values()) {
+			count += failureCount;
+		}
+		return count;
+	}
+	
+	private long getDisplayedSteps() {
+		long steps = 0;
+		for (SimulatedWorker worker : activeWorkers.values()) {
+			steps += worker.getDisplayedSteps();
+		}
+		return steps;
+	}
+	
+	private void finish() {
+		double duration = (System.nanoTime() - startTime) / 1000000000d;
+		vertx.cancelTimer(rampUpTimerId);
+		vertx.cancelTimer(samplingTimerId);
+		vertx.cancelTimer(reportTimerId);
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long loadedHeap = memory.getHeapMemoryUsage().getUsed();
+		// Sessions are retained by the service after the measures have been completed.
+		memory.gc();
+		long retainedHeap = memory.getHeapMemoryUsage().getUsed();
+		
+		JsonObject failureSummary = new JsonObject();
+		for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+			failureSummary.putNumber(entry.getKey(), entry.getValue());
+		}
+		JsonArray standInStatus = new JsonArray();
+		for (StandIn standIn : standIns) {
+			standInStatus.addObject(standIn.getStatus());
+		}
+		JsonObject result = new JsonObject()
+			.putNumber("workers", workerCount)
+			.putNumber("completed", completedCount)
+			.putNumber("failed", getFailureCount())
+			.putObject("failures", failureSummary)
+			.putNumber("steps", totalSteps)
+			.putNumber("duration", duration)
+			.putNumber("throughput", totalSteps / duration)
+			.putObject("firstStepLatency", firstStepLatency.asJson())
+			.putObject("stepLatency", stepLatency.asJson())
+			.putObject("heap", new JsonObject()
+				.putNumber("baseline", baselineHeap / MB)
+				.putNumber("peak", peakHeap / MB)
+				.putNumber("loaded", loadedHeap / MB)
+				.putNumber("retained", retainedHeap / MB)
+				.putNumber("retainedPerWorker", Math.max(0, retainedHeap - baselineHeap) / 1024d / workerCount))
+			.putObject("routes", new JsonObject()
+				.putObject("/startSupport/:supportId", Metrics.httpRequest("/startSupport/:supportId").asJson())
+				.putObject("/navigate/next", Metrics.httpRequest("/navigate/next").asJson()))
+			.putArray("standIns", standInStatus);
+		logger.info("Load test finished (durations in ms, heap in MB, retained heap per worker in KB):\n" + result.encodePrettily());
+		String resultFile = config.getString("resultFile", "target/load-test-result.json");
+		vertx.fileSystem().writeFile(resultFile, new Buffer(result.encodePrettily()), new Handler<AsyncResult<Void>>() {
+			
+			@Override
+			public void handle(AsyncResult<Void> writeRequest) {
+				if (writeRequest.failed()) {
+					logger.warn("Failed to write load test result.", writeRequest.cause());
+				}
+				container.exit();
+			}
+		});
+	}
+	
+	private void abort(String message, Throwable cause) {
+		logger.error(message, cause);
+		container.exit();
+	}
+	
+	/**
+	 * Runs the load test in an embedded platform.
+	 * @param args Optional path of the configuration file.
+	 * @throws IOException Failed to read the configuration.
+	 * @throws InterruptedException Interrupted while waiting for the load test to finish.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String configString;
+		if (args.length > 0) {
+			configString = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+		} else {
+			try (InputStream in = LoadTest.class.getClassLoader().getResourceAsStream(DEFAULT_CONFIG); Scanner scanner = new Scanner(in, "UTF-8")) {
+				configString = scanner.useDelimiter("\\A").next();
+			}
+		}
+		String[] classpathEntries = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] classpath = new URL[classpathEntries.length];
+		for (int i = 0; i < classpathEntries.length; i++) {
+			try {
+				classpath[i] = new File(classpathEntries[i]).toURI().toURL();
+			} catch (MalformedURLException e) {
+				throw new IOException("Invalid class path entry: " + classpathEntries[i], e);
+			}
+		}
+		
+		final CountDownLatch latch = new CountDownLatch(1);
+		PlatformManager platformManager = PlatformLocator.factory.createPlatformManager();
+		platformManager.registerExitHandler(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				latch.countDown();
+			}
+		});
+		platformManager.deployVerticle(LoadTest.class.getName(), new JsonObject(configString), classpath, 1, null, new Handler<AsyncResult<String>>() {
+			
+			@Override
+			public void handle(AsyncResult<String> deployRequest) {
+				if (deployRequest.failed()) {
+					logger.error("Failed to deploy load test.", deployRequest.cause());
+					latch.countDown();
+				}
+			}
+		});
+		latch.await();
+		platformManager.stop();
+	}
+}
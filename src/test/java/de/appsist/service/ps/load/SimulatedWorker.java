@@ -0,0 +1,160 @@
+package de.appsist.service.ps.load;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.ps.metrics.LatencyHistogram;
+
+/**
+ * Worker performing a measure with the support of the performance support service.
+ * The worker starts the support for the measure and confirms each displayed step until the measure is completed. The step latency is the time from the request to the display of the resulting step.
+ * @author simon.schwantzer(at)im-c.de
+ */
+class SimulatedWorker {
+	private final Vertx vertx;
+	private final HttpClient client;
+	private final String basePath;
+	private final String sessionId;
+	private final String token;
+	private final LatencyHistogram firstStepLatency;
+	private final LatencyHistogram stepLatency;
+	private final long stepTimeout;
+	private final Handler<SimulatedWorker> completionHandler;
+	private int displayedSteps;
+	private int steps;
+	private long stepStartTime;
+	private Long timeoutTimerId;
+	private boolean isFinished;
+	private String failure;
+	
+	/**
+	 * Creates a worker.
+	 * @param vertx Vertx instance.
+	 * @param client HTTP client connected to the performance support service.
+	 * @param basePath Base path of the performance support service.
+	 * @param sessionId ID of the session of the worker.
+	 * @param firstStepLatency Histogram for the latency of the first step, recorded from the start of the support.
+	 * @param stepLatency Histogram for the latency of the subsequent steps.
+	 * @param stepTimeout Time to wait for the display of a step in milliseconds.
+	 * @param completionHandler Handler called when the worker has completed the measure or failed.
+	 */
+	SimulatedWorker(Vertx vertx, HttpClient client, String basePath, String sessionId, LatencyHistogram firstStepLatency, LatencyHistogram stepLatency, long stepTimeout, Handler<SimulatedWorker> completionHandler) {
+		this.vertx = vertx;
+		this.client = client;
+		this.basePath = basePath;
+		this.sessionId = sessionId;
+		this.token = "token-" + sessionId;
+		this.firstStepLatency = firstStepLatency;
+		this.stepLatency = stepLatency;
+		this.stepTimeout = stepTimeout;
+		this.completionHandler = completionHandler;
+	}
+	
+	/**
+	 * Starts the support for the given measure.
+	 * @param measureId ID of the measure to perform.
+	 * @param steps Number of steps of the measure.
+	 */
+	void start(String measureId, int steps) {
+		this.steps = steps;
+		requestStep("/startSupport/" + measureId);
+	}
+	
+	/**
+	 * Handles the display of a step for the session of the worker.
+	 * Confirms the step, the confirmation of the last step completes the measure.
+	 */
+	void onStepDisplayed() {
+		if (isFinished) return;
+		vertx.cancelTimer(timeoutTimerId);
+		(displayedSteps == 0 ? firstStepLatency : stepLatency).recordSince(stepStartTime);
+		displayedSteps++;
+		if (displayedSteps < steps) {
+			requestStep("/navigate/next");
+		} else {
+			post("/navigate/next", new Handler<Void>() {
+				
+				@Override
+				public void handle(Void event) {
+					finish(null);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns the ID of the session of the worker.
+	 * @return Session ID.
+	 */
+	String getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * Returns the number of steps displayed.
+	 * @return Number of steps.
+	 */
+	int getDisplayedSteps() {
+		return displayedSteps;
+	}
+	
+	/**
+	 * Returns the reason the worker failed for.
+	 * @return Description of the failure or <code>null</code> if the worker has not failed.
+	 */
+	String getFailure() {
+		return failure;
+	}
+	
+	private void requestStep(final String route) {
+		stepStartTime = System.nanoTime();
+		timeoutTimerId = vertx.setTimer(stepTimeout, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				finish("Step not displayed after " + route);
+			}
+		});
+		post(route, null);
+	}
+	
+	private void post(final String route, final Handler<Void> successHandler) {
+		HttpClientRequest request = client.post(basePath + route, new Handler<HttpClientResponse>() {
+			
+			@Override
+			public void handle(HttpClientResponse response) {
+				if (response.statusCode() >= 400) {
+					finish("Status " + response.statusCode() + " for " + route);
+				} else if (successHandler != null) {
+					successHandler.handle(null);
+				}
+			}
+		});
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable e) {
+				finish(e.getClass().getSimpleName() + " for " + route);
+			}
+		});
+		JsonObject body = new JsonObject()
+			.putString("sessionId", sessionId)
+			.putString("token", token);
+		request.putHeader("Content-Type", "application/json");
+		request.end(body.encode());
+	}
+	
+	private void finish(String failure) {
+		if (isFinished) return;
+		isFinished = true;
+		this.failure = failure;
+		if (timeoutTimerId != null) {
+			vertx.cancelTimer(timeoutTimerId);
+		}
+		completionHandler.handle(this);
+	}
+}
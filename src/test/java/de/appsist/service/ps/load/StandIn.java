@@ -0,0 +1,114 @@
+package de.appsist.service.ps.load;
+
+import java.util.Random;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Base class for the local stand-ins of the services the performance support service depends on.
+ * Answers are delayed by the configured latency (<code>latency</code>) plus a random jitter (<code>jitter</code>), both in milliseconds.
+ * @author simon.schwantzer(at)im-c.de
+ */
+abstract class StandIn {
+	protected final Vertx vertx;
+	private final String name;
+	private final long latency;
+	private final long jitter;
+	private final Random random;
+	private long requestCount;
+	
+	/**
+	 * Creates the stand-in.
+	 * @param vertx Vertx instance.
+	 * @param name Name of the service the stand-in replaces.
+	 * @param config Configuration of the stand-in.
+	 */
+	StandIn(Vertx vertx, String name, JsonObject config) {
+		this.vertx = vertx;
+		this.name = name;
+		this.latency = config.getLong("latency", 0);
+		this.jitter = config.getLong("jitter", 0);
+		this.random = new Random();
+	}
+	
+	/**
+	 * Calls the given handler after the latency of the stand-in.
+	 * @param handler Handler to call.
+	 */
+	protected void delay(final Handler<Void> handler) {
+		requestCount++;
+		long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		if (delay <= 0) {
+			handler.handle(null);
+			return;
+		}
+		vertx.setTimer(delay, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				handler.handle(null);
+			}
+		});
+	}
+	
+	/**
+	 * Replies to an event bus message after the latency of the stand-in.
+	 * @param message Message to reply to.
+	 * @param reply Reply to send.
+	 */
+	protected void reply(final Message<JsonObject> message, final JsonObject reply) {
+		delay(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				message.reply(reply);
+			}
+		});
+	}
+	
+	/**
+	 * Answers an HTTP request with a JSON object after the latency of the stand-in.
+	 * @param request Request to answer.
+	 * @param body Body of the response.
+	 */
+	protected void respond(HttpServerRequest request, JsonObject body) {
+		respond(request, body, null);
+	}
+	
+	/**
+	 * Answers an HTTP request with a JSON object after the latency of the stand-in.
+	 * @param request Request to answer.
+	 * @param body Body of the response.
+	 * @param completionHandler Handler called after the response has been sent, may be <code>null</code>.
+	 */
+	protected void respond(final HttpServerRequest request, final JsonObject body, final Handler<Void> completionHandler) {
+		delay(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				request.response()
+					.putHeader("Content-Type", "application/json")
+					.end(body.encode());
+				if (completionHandler != null) {
+					completionHandler.handle(null);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the statistics of the stand-in.
+	 * @return JSON object with name, latency, jitter and number of requests answered.
+	 */
+	public JsonObject getStatus() {
+		return new JsonObject()
+			.putString("service", name)
+			.putNumber("latency", latency)
+			.putNumber("jitter", jitter)
+			.putNumber("requests", requestCount);
+	}
+}